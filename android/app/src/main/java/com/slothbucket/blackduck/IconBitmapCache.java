@@ -0,0 +1,138 @@
+package com.slothbucket.blackduck;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.slothbucket.blackduck.client.ClientMetrics;
+import com.slothbucket.blackduck.common.FluentLog;
+import com.slothbucket.blackduck.common.Preconditions;
+import com.slothbucket.blackduck.models.TaskIcon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Byte-bounded LRU cache of decoded icon bitmaps, keyed by icon ID.
+ *
+ * <p>Icons missing from the cache are decoded on a background pool while their views show a
+ * placeholder; finished bitmaps are posted back to whichever views are still bound to that icon.
+ * All public methods must be called on the main thread.
+ */
+class IconBitmapCache {
+    private static final FluentLog logger = FluentLog.loggerFor("blackduck", IconBitmapCache.class);
+    private static final int NUM_DECODER_THREADS = 2;
+
+    private final LruCache<String, Bitmap> bitmaps;
+    private final Drawable placeholder;
+    private final ExecutorService decoder = Executors.newFixedThreadPool(NUM_DECODER_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, List<TaskIconView>> waitingViews = new HashMap<>();
+
+    IconBitmapCache(int maxBytes, Drawable placeholder) {
+        this.placeholder = Preconditions.checkNotNull(placeholder);
+        this.bitmaps = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String iconId, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Shows the bitmap for {@code icon} in {@code view}, or the placeholder until it is decoded.
+     * A null icon (not fetched yet) shows the placeholder.
+     */
+    void bind(TaskIconView view, TaskIcon icon) {
+        String iconId = (icon != null) ? icon.id() : null;
+        view.setBoundIconId(iconId);
+        if (icon == null) {
+            view.setImageDrawable(placeholder);
+            return;
+        }
+
+        Bitmap bitmap = bitmaps.get(iconId);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(placeholder);
+        List<TaskIconView> views = waitingViews.get(iconId);
+        if (views != null) {
+            // Already decoding; just wait for the result.
+            views.add(view);
+            return;
+        }
+
+        views = new ArrayList<>();
+        views.add(view);
+        waitingViews.put(iconId, views);
+        decodeAsync(icon);
+    }
+
+    void close() {
+        decoder.shutdownNow();
+        waitingViews.clear();
+        bitmaps.evictAll();
+    }
+
+    private void decodeAsync(final TaskIcon icon) {
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap decoded = null;
+                long startNanos = System.nanoTime();
+                try {
+                    decoded = icon.getPixelsAsBitmap();
+                    ClientMetrics.global().recordTime(
+                        ClientMetrics.ICON_DECODE, System.nanoTime() - startNanos);
+                } catch (RuntimeException e) {
+                    logger.atError().withCause(e).log("Failed to decode icon %s.", icon.id());
+                } finally {
+                    // Always reported, so the icon's waiting views are released either way.
+                    final Bitmap bitmap = decoded;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onDecoded(icon.id(), bitmap);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /** Shows a decoded bitmap in the waiting views, or the placeholder if it is null. */
+    private void onDecoded(String iconId, Bitmap bitmap) {
+        List<TaskIconView> views = waitingViews.remove(iconId);
+        if (views == null) {
+            // Cache was closed while decoding.
+            return;
+        }
+        if (bitmap == null) {
+            // Not cached, so a later bind tries the icon again.
+            for (TaskIconView view : views) {
+                if (iconId.equals(view.getBoundIconId())) {
+                    view.setImageDrawable(placeholder);
+                }
+            }
+            return;
+        }
+
+        logger.atVerbose().log("Decoded icon %s (%d bytes).", iconId, bitmap.getByteCount());
+        bitmaps.put(iconId, bitmap);
+        for (TaskIconView view : views) {
+            // Views may have been recycled for another task while we were decoding.
+            if (iconId.equals(view.getBoundIconId())) {
+                view.setImageBitmap(bitmap);
+            }
+        }
+    }
+}
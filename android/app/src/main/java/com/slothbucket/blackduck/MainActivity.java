@@ -9,29 +9,47 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.support.v4.content.LocalBroadcastManager;
+import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
-import android.widget.GridView;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Toast;
 
+import com.slothbucket.blackduck.client.BlackDuckClient;
 import com.slothbucket.blackduck.client.BlackDuckService;
+import com.slothbucket.blackduck.client.ChunkListener;
+import com.slothbucket.blackduck.client.ClientMetrics;
 import com.slothbucket.blackduck.client.Constants;
-import com.slothbucket.blackduck.client.RequestPayload;
-import com.slothbucket.blackduck.client.ServiceRequest;
+import com.slothbucket.blackduck.client.LinkState;
+import com.slothbucket.blackduck.client.ResponseCallback;
+import com.slothbucket.blackduck.client.ResponsePayload;
+import com.slothbucket.blackduck.client.ServiceException;
 import com.slothbucket.blackduck.client.ServiceResponse;
+import com.slothbucket.blackduck.client.SyncScheduler;
+import com.slothbucket.blackduck.client.TaskUpdateListener;
 import com.slothbucket.blackduck.common.FluentLog;
+import com.slothbucket.blackduck.models.IconCodec;
+import com.slothbucket.blackduck.models.IconStore;
 import com.slothbucket.blackduck.models.Task;
 import com.slothbucket.blackduck.models.TaskIcon;
+import com.slothbucket.blackduck.models.TaskPatch;
+import com.slothbucket.blackduck.models.TaskSnapshot;
 import com.slothbucket.blackduck.models.TaskStateManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -39,14 +57,49 @@ public class MainActivity extends AppCompatActivity {
 
     // TODO: Implement automatic device discovery (SDP keeps cycling my adapter!).
     private static final String BT_DEVICE_MAC = "00:02:5B:05:7A:CA";
-    private static final long REFRESH_PERIOD_SECONDS = 3;
+    private static final String ICON_STORE_DIRECTORY = "icons";
+    private static final String TASK_SNAPSHOT_FILE = "tasks.snapshot";
 
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final TaskStateManager taskStateManager = new TaskStateManager();
+    private TaskStateManager taskStateManager;
     private ProgressDialog progressDialog;
-    private ScheduledFuture<?> periodicRefreshTask;
+    private SyncScheduler syncScheduler;
+    private BlackDuckClient client;
+    private TaskItemAdapter taskItemAdapter;
+    private boolean subscribedToTasks = false;
+    // Whether tasks saved by an earlier launch are on screen, and only need catching up.
+    private boolean restoredTasks = false;
+    private boolean linkLost = false;
     private BluetoothAdapter bluetoothAdapter;
 
+    private final TaskStateManager.Listener stateListener = new TaskStateManager.Listener() {
+        @Override
+        public void onStateChanged(final TaskSnapshot snapshot) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    refreshTaskDisplay(snapshot);
+                }
+            });
+        }
+    };
+
+    private final TaskStateManager.SyncListener syncListener = new TaskStateManager.SyncListener() {
+        @Override
+        public void onSyncNeeded(long sequence) {
+            syncTasks(sequence);
+        }
+    };
+
+    private final TaskUpdateListener taskUpdateListener = new TaskUpdateListener() {
+        @Override
+        public void onTasksChanged(ResponsePayload changes) {
+            logger.atDebug().log("Received %d pushed task changes.",
+                changes.tasks().size() + changes.patches().size());
+            onListTasksResults(changes, false);
+        }
+    };
+
     private final BroadcastReceiver serviceReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -58,88 +111,121 @@ public class MainActivity extends AppCompatActivity {
             } else if (Constants.ACTION_DEVICE_ERROR.equals(action)) {
                 String reason = intent.getStringExtra(Constants.EXTRA_ERROR_MESSAGE);
                 progressDialog.setMessage(String.format("Bluetooth error: %s", reason));
-            } else if (Constants.ACTION_SERVICE_RESPONSE.equals(action)) {
-                ServiceResponse response =
-                    intent.getParcelableExtra(Constants.EXTRA_SERVICE_RESPONSE);
-
-                String status = response.status();
-                if (!"ok".equals(status)) {
-                    String error = response.error();
-                    if ("client-error".equals(status)) {
-                        logger.atError().log("Received client error in response: %s", error);
-                        progressDialog.setMessage("Client error encountered.");
-                    } else if ("server-error".equals(status)) {
-                        logger.atError().log("Received server error in response: %s", error);
-                        progressDialog.setMessage("Server error encountered.");
-                    } else {
-                        logger.atError().log("Unexpected status: %s", status);
-                    }
-                    return;
-                }
+            } else if (Constants.ACTION_LINK_STATE_CHANGED.equals(action)) {
+                onLinkStateChanged(
+                    (LinkState) intent.getSerializableExtra(Constants.EXTRA_LINK_STATE));
+            }
+        }
+    };
 
-                switch (response.requestId()) {
-                    case RequestConstants.REQUEST_LIST_TASKS_INITIAL:
-                        onListTasksResults(response.payload().tasks(), true);
-                        break;
-                    case RequestConstants.REQUEST_FETCH_ICONS_INITIAL:
-                        onBatchGetIconResults(response.payload().icons(), true);
-                        break;
-                    case RequestConstants.REQUEST_LIST_TASKS_SYNC:
-                        onListTasksResults(response.payload().tasks(), false);
-                        break;
-                    case RequestConstants.REQUEST_FETCH_ICONS_SYNC:
-                        onBatchGetIconResults(response.payload().icons(), false);
-                        break;
-                    case RequestConstants.REQUEST_ACTIVATE_TASK:
-                        logger.atDebug().log("Task activation succeeded.");
-                        break;
-                    case RequestConstants.REQUEST_SCALE_TASK:
-                        logger.atDebug().log("Task scaling succeeded.");
-                        break;
-                    default:
-                        logger.atWarning().log(
-                            "Unhandled service response from request ID %d", response.requestId());
+    /** Callback that reports failures the same way for every call made by this activity. */
+    private abstract class ServiceCallback implements ResponseCallback {
+        @Override
+        public void onFailure(Throwable cause) {
+            if (cause instanceof ServiceException) {
+                String status = ((ServiceException) cause).status();
+                String error = cause.getMessage();
+                if (Constants.STATUS_CLIENT_ERROR.equals(status)) {
+                    logger.atError().log("Received client error in response: %s", error);
+                    progressDialog.setMessage("Client error encountered.");
+                } else if (Constants.STATUS_SERVER_ERROR.equals(status)) {
+                    logger.atError().log("Received server error in response: %s", error);
+                    progressDialog.setMessage("Server error encountered.");
+                } else {
+                    logger.atError().log("Unexpected status: %s", status);
                 }
+            } else {
+                logger.atError().withCause(cause).log("Request failed.");
             }
         }
-    };
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        taskStateManager = new TaskStateManager(openIconStore());
+        // Restored before the adapter is created, so the first frame already shows them.
+        restoredTasks = taskStateManager.restoreSnapshot(getTaskSnapshotFile());
 
         // Configure local broadcast listener.
         IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(Constants.ACTION_DEVICE_CONNECTED);
         intentFilter.addAction(Constants.ACTION_DEVICE_ERROR);
-        intentFilter.addAction(Constants.ACTION_SERVICE_RESPONSE);
+        intentFilter.addAction(Constants.ACTION_LINK_STATE_CHANGED);
         LocalBroadcastManager.getInstance(this)
             .registerReceiver(serviceReceiver, intentFilter);
+        client = new BlackDuckClient(this);
 
         // Configure grid view.
         TaskItemGridView taskItemGridView = (TaskItemGridView) findViewById(R.id.task_grid);
         taskItemGridView.setNumColumns(
             getNumColumnsForOrientation(getResources().getConfiguration().orientation));
-        taskItemGridView.setAdapter(new TaskItemAdapter(this, taskStateManager));
+        taskItemAdapter = new TaskItemAdapter(this, taskStateManager, client);
+        taskItemGridView.setAdapter(taskItemAdapter);
+        taskStateManager.addListener(stateListener);
+        taskStateManager.setSyncListener(syncListener);
+        syncScheduler = new SyncScheduler(scheduler, new Runnable() {
+            @Override
+            public void run() {
+                syncTasks(taskStateManager.getSyncSequence());
+            }
+        });
 
         progressDialog = new ProgressDialog(this, ProgressDialog.STYLE_SPINNER);
         initializeBluetooth();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        syncScheduler.resume();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        syncScheduler.pause();
+        taskStateManager.saveSnapshotAsync(getTaskSnapshotFile());
+    }
+
+    @Override
+    public void onUserInteraction() {
+        super.onUserInteraction();
+        syncScheduler.onActivity();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (periodicRefreshTask != null) {
-            periodicRefreshTask.cancel(true);
-            periodicRefreshTask = null;
-        }
+        syncScheduler.setEnabled(false);
+        scheduler.shutdown();
+
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(serviceReceiver);
+        taskStateManager.removeListener(stateListener);
+        taskStateManager.setSyncListener(null);
+        taskStateManager.close();
+        taskItemAdapter.close();
+        client.close();
 
         if (bluetoothAdapter != null && bluetoothAdapter.isEnabled()) {
             stopService(new Intent(this, BlackDuckService.class));
         }
     }
 
+    private IconStore openIconStore() {
+        try {
+            return IconStore.open(new File(getFilesDir(), ICON_STORE_DIRECTORY));
+        } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Icon store unavailable; icons will not persist.");
+            return null;
+        }
+    }
+
+    private File getTaskSnapshotFile() {
+        return new File(getFilesDir(), TASK_SNAPSHOT_FILE);
+    }
+
     private void initializeBluetooth() {
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         if (bluetoothAdapter == null) {
@@ -159,7 +245,9 @@ public class MainActivity extends AppCompatActivity {
 
         progressDialog.setTitle("Please wait while we connect to your computer.");
         progressDialog.setMessage("Connecting to Bluetooth service...");
-        progressDialog.show();
+        if (!restoredTasks) {
+            progressDialog.show();
+        }
         BluetoothDevice device = bluetoothAdapter.getRemoteDevice(BT_DEVICE_MAC);
         if (device == null) {
             logger.atError().log("Failed to find remote device '%s'", BT_DEVICE_MAC);
@@ -172,37 +260,182 @@ public class MainActivity extends AppCompatActivity {
         startService(intent);
     }
 
+    private void onLinkStateChanged(LinkState state) {
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setSubtitle(getLinkStateLabel(state));
+        }
+        if (state == LinkState.CONNECTED && linkLost && !subscribedToTasks) {
+            // The service resumes the session and catches subscribers up; pollers catch up here.
+            syncTasks(taskStateManager.getSyncSequence());
+        }
+        linkLost = (state == LinkState.RECONNECTING);
+    }
+
+    private static String getLinkStateLabel(LinkState state) {
+        switch (state) {
+            case CONNECTING:
+                return "Connecting...";
+            case RECONNECTING:
+                return "Reconnecting...";
+            case DISCONNECTED:
+                return "Disconnected";
+            default:
+                return null;
+        }
+    }
+
     private void onDeviceConnected() {
-        ServiceRequest request =
-            ServiceRequest.builder()
-                .setRequestId(RequestConstants.REQUEST_LIST_TASKS_INITIAL)
-                .setCommand(Constants.COMMAND_LIST_TASKS)
-                .setPayload(RequestPayload.empty())
-                .build();
-        BlackDuckService.sendRequest(this, request);
+        client.openSession(getPreferredIconCodecs()).addCallback(new ResponseCallback() {
+            @Override
+            public void onSuccess(ServiceResponse response) {
+                logger.atInfo().log("Icons will be sent as %s.", response.payload().iconCodec());
+                subscribeTasks();
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                logger.atWarning().withCause(cause).log("Failed to open session; using defaults.");
+                subscribeTasks();
+            }
+        });
     }
 
-    private void onListTasksResults(Iterable<Task> tasks, boolean isInitialLoad) {
-        Set<String> iconIds = getIconIdsFromTasks(tasks);
-        taskStateManager.updateTasksAsync(tasks);
+    private void subscribeTasks() {
+        // Subscribe before listing so that no change can slip in between the two.
+        client.subscribeTasks(taskUpdateListener).addCallback(new ResponseCallback() {
+            @Override
+            public void onSuccess(ServiceResponse response) {
+                subscribedToTasks = true;
+                loadTasks();
+            }
 
-        if (isInitialLoad) {
-            if (!iconIds.isEmpty()) {
-                progressDialog.setMessage("Fetching task icons...");
-                batchGetIcons(RequestConstants.REQUEST_FETCH_ICONS_INITIAL, iconIds);
-            } else {
-                progressDialog.dismiss();
-                refreshTaskDisplay();
+            @Override
+            public void onFailure(Throwable cause) {
+                logger.atWarning().withCause(cause).log(
+                    "Service does not push task changes; falling back to polling.");
+                subscribedToTasks = false;
+                loadTasks();
+            }
+        });
+    }
+
+    /**
+     * RFCOMM is slow enough that zlib's smaller payloads usually win, but decoding it is costly on
+     * devices with few cores, which are better off with LZ4.
+     */
+    private static List<String> getPreferredIconCodecs() {
+        List<IconCodec> codecs = (Runtime.getRuntime().availableProcessors() > 2)
+            ? Arrays.asList(IconCodec.ZLIB, IconCodec.LZ4, IconCodec.RAW)
+            : Arrays.asList(IconCodec.LZ4, IconCodec.ZLIB, IconCodec.RAW);
+
+        List<String> names = new ArrayList<>();
+        for (IconCodec codec : codecs) {
+            names.add(codec.wireName());
+        }
+        return names;
+    }
+
+    private void loadTasks() {
+        if (restoredTasks) {
+            catchUpRestoredTasks();
+        } else {
+            listTasks();
+        }
+    }
+
+    /**
+     * Syncs from the sequence the restored tasks were saved at. If the service has restarted
+     * since, that sequence is unknown to it and the sync returns a full listing instead.
+     */
+    private void catchUpRestoredTasks() {
+        client.syncTasks(taskStateManager.getSyncSequence()).addCallback(new ServiceCallback() {
+            @Override
+            public void onSuccess(ServiceResponse response) {
+                onListTasksResults(response.payload(), false);
+                onInitialLoadComplete();
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                super.onFailure(cause);
+                // Poll even when subscribed, so the restored tasks still catch up later.
+                syncScheduler.setEnabled(true);
+            }
+        });
+    }
+
+    private void listTasks() {
+        // Streamed tasks are shown as they arrive; the full listing then replaces them.
+        final List<Task> streamedTasks = new ArrayList<>();
+        ChunkListener chunkListener = new ChunkListener() {
+            @Override
+            public void onChunk(ServiceResponse chunk) {
+                streamedTasks.addAll(chunk.payload().tasks());
+                taskStateManager.updateTasksAsync(chunk.payload().tasks());
+            }
+        };
+        client.listTasks(chunkListener).addCallback(new ServiceCallback() {
+            @Override
+            public void onSuccess(ServiceResponse response) {
+                ResponsePayload payload = response.payload();
+                streamedTasks.addAll(payload.tasks());
+                onListTasksResults(
+                    ResponsePayload.builder()
+                        .setTasks(streamedTasks)
+                        .setSequence(payload.sequence())
+                        .setReset(true)
+                        .build(),
+                    true);
             }
+        });
+    }
+
+    private void onListTasksResults(ResponsePayload payload, final boolean isInitialLoad) {
+        List<Task> tasks = payload.tasks();
+        if (!tasks.isEmpty() || !payload.patches().isEmpty()) {
+            syncScheduler.onActivity();
+        }
+        Set<String> iconIds = getIconIdsFromTasks(tasks);
+        if (isInitialLoad || payload.reset()) {
+            taskStateManager.replaceTasksAsync(tasks, payload.sequence());
         } else {
-             // Fetch any new icons.
-            List<String> newIconIds = taskStateManager.getMissingTaskIconIds(iconIds);
-            if (!newIconIds.isEmpty()) {
-                batchGetIcons(RequestConstants.REQUEST_FETCH_ICONS_SYNC, newIconIds);
-            } else {
-                refreshTaskDisplay();
+            taskStateManager.updateTasksAsync(
+                tasks, payload.patches(), payload.baseSequence(), payload.sequence());
+            for (TaskPatch patch : payload.patches()) {
+                if (patch.iconId() != null) {
+                    iconIds.add(patch.iconId());
+                }
+            }
+        }
+
+        if (iconIds.isEmpty()) {
+            if (isInitialLoad) {
+                onInitialLoadComplete();
             }
+            return;
         }
+        if (isInitialLoad) {
+            progressDialog.setMessage("Fetching task icons...");
+        }
+        // Only icons that are in neither memory nor the icon store are fetched.
+        taskStateManager.getMissingTaskIconIdsAsync(
+            iconIds,
+            new TaskStateManager.MissingIconsCallback() {
+                @Override
+                public void onMissingIcons(final List<String> missingIconIds) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!missingIconIds.isEmpty()) {
+                                batchGetIcons(missingIconIds, isInitialLoad);
+                            } else if (isInitialLoad) {
+                                onInitialLoadComplete();
+                            }
+                        }
+                    });
+                }
+            });
     }
 
     private void onBatchGetIconResults(Iterable<TaskIcon> taskIcons, boolean isInitialLoad) {
@@ -210,58 +443,46 @@ public class MainActivity extends AppCompatActivity {
 
         logger.atDebug().log("Processing icon results.");
         if (isInitialLoad) {
-            schedulePeriodicTaskRefresher();
-            refreshTaskDisplay();
-            progressDialog.dismiss();
-        } else {
-            refreshTaskDisplay();
+            onInitialLoadComplete();
         }
     }
 
-    private void batchGetIcons(int requestId, Iterable<String> iconIds) {
-        ArrayList<String> iconIdsList = new ArrayList<>();
-        addAllIterableToCollection(iconIdsList, iconIds);
-
-        RequestPayload payload = RequestPayload.builder().setIconIds(iconIdsList).build();
-        ServiceRequest request =
-                ServiceRequest.builder()
-                        .setRequestId(requestId)
-                        .setCommand(Constants.COMMAND_BATCHGET_ICONS)
-                        .setPayload(payload)
-                        .build();
-        BlackDuckService.sendRequest(this, request);
+    private void onInitialLoadComplete() {
+        // Subscribed clients are pushed every change, so only the others need to poll.
+        syncScheduler.setEnabled(!subscribedToTasks);
+        progressDialog.dismiss();
     }
 
-    private void schedulePeriodicTaskRefresher() {
-        if (periodicRefreshTask != null) {
-            logger.atError().log("Periodic refresh already scheduled!");
-            return;
-        }
-
-        periodicRefreshTask = scheduler.scheduleWithFixedDelay(
-            new Runnable() {
-                @Override
-                public void run() {
-                    long maxTimestamp = taskStateManager.getMaxTimestamp();
-                    RequestPayload payload =
-                        RequestPayload.builder().setLastUpdateTimestamp(maxTimestamp).build();
-                    ServiceRequest request =
-                        ServiceRequest.builder()
-                            .setRequestId(RequestConstants.REQUEST_LIST_TASKS_SYNC)
-                            .setCommand(Constants.COMMAND_LIST_UPDATED_TASKS)
-                            .setPayload(payload)
-                            .build();
-                    BlackDuckService.sendRequest(MainActivity.this, request);
+    private void batchGetIcons(Iterable<String> iconIds, final boolean isInitialLoad) {
+        ChunkListener chunkListener = new ChunkListener() {
+            @Override
+            public void onChunk(ServiceResponse chunk) {
+                taskStateManager.updateTaskIconsAsync(chunk.payload().icons());
+                // Tiles fill in as chunks land, so there is no need to hold the dialog up.
+                if (isInitialLoad) {
+                    progressDialog.dismiss();
                 }
-            },
-            REFRESH_PERIOD_SECONDS,
-            REFRESH_PERIOD_SECONDS,
-            TimeUnit.SECONDS);
+            }
+        };
+        client.batchGetIcons(iconIds, chunkListener).addCallback(new ServiceCallback() {
+            @Override
+            public void onSuccess(ServiceResponse response) {
+                onBatchGetIconResults(response.payload().icons(), isInitialLoad);
+            }
+        });
+    }
+
+    private void syncTasks(long sequence) {
+        client.syncTasks(sequence).addCallback(new ServiceCallback() {
+            @Override
+            public void onSuccess(ServiceResponse response) {
+                onListTasksResults(response.payload(), false);
+            }
+        });
     }
 
-    private void refreshTaskDisplay() {
-        GridView taskGridView = (GridView) findViewById(R.id.task_grid);
-        ((TaskItemAdapter) taskGridView.getAdapter()).notifyDataSetChanged();
+    private void refreshTaskDisplay(TaskSnapshot snapshot) {
+        taskItemAdapter.setSnapshot(snapshot);
     }
 
     @Override
@@ -276,10 +497,62 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_show_metrics:
+                item.setChecked(!item.isChecked());
+                findViewById(R.id.metrics_overlay)
+                    .setVisibility(item.isChecked() ? View.VISIBLE : View.GONE);
+                return true;
+            case R.id.action_dump_metrics:
+                dumpMetrics();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /** Writes the metrics report where it can be pulled off the device for a field report. */
+    private void dumpMetrics() {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        final File file = new File(directory, "metrics-" + timestamp + ".txt");
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    ClientMetrics.global().dumpTo(file);
+                    message = "Metrics written to " + file;
+                } catch (IOException e) {
+                    logger.atError().withCause(e).log("Failed to dump metrics.");
+                    message = "Failed to write metrics: " + e.getMessage();
+                }
+                final String toast = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, toast, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
+
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
-        GridView taskGrid = (GridView) findViewById(R.id.task_grid);
+        TaskItemGridView taskGrid = (TaskItemGridView) findViewById(R.id.task_grid);
         taskGrid.setNumColumns(getNumColumnsForOrientation(newConfig.orientation));
     }
 
@@ -287,17 +560,13 @@ public class MainActivity extends AppCompatActivity {
         return (orientation == Configuration.ORIENTATION_LANDSCAPE) ? 6 : 3;
     }
 
-    private static <T> void addAllIterableToCollection(
-            Collection<T> collection, Iterable<T> newItems) {
-        for (T item : newItems) {
-            collection.add(item);
-        }
-    }
-
     private static Set<String> getIconIdsFromTasks(Iterable<Task> tasks) {
         Set<String> iconIds = new HashSet<>();
         for (Task task : tasks) {
-            iconIds.add(task.iconId());
+            // Closed tasks are never shown, and the host may already have dropped their icons.
+            if (task.isOpen()) {
+                iconIds.add(task.iconId());
+            }
         }
         return iconIds;
     }
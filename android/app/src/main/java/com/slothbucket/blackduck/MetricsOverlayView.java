@@ -0,0 +1,61 @@
+package com.slothbucket.blackduck;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.TextView;
+
+import com.slothbucket.blackduck.client.ClientMetrics;
+
+/**
+ * Debug overlay showing the {@link ClientMetrics} report, refreshed every second while visible.
+ */
+class MetricsOverlayView extends TextView {
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    public MetricsOverlayView(Context context) {
+        super(context);
+    }
+
+    public MetricsOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public MetricsOverlayView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        refresh();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(refreshTask);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        refresh();
+    }
+
+    private void refresh() {
+        removeCallbacks(refreshTask);
+        if (getVisibility() != VISIBLE || getWindowToken() == null) {
+            return;
+        }
+        setText(ClientMetrics.global().report());
+        postDelayed(refreshTask, REFRESH_INTERVAL_MILLIS);
+    }
+}
@@ -2,12 +2,6 @@ package com.slothbucket.blackduck;
 
 final class RequestConstants {
     static final int REQUEST_ENABLE_BT = 1;
-    static final int REQUEST_LIST_TASKS_INITIAL = 2;
-    static final int REQUEST_LIST_TASKS_SYNC = 3;
-    static final int REQUEST_FETCH_ICONS_INITIAL = 4;
-    static final int REQUEST_FETCH_ICONS_SYNC = 5;
-    static final int REQUEST_ACTIVATE_TASK = 6;
-    static final int REQUEST_SCALE_TASK = 7;
 
     private RequestConstants() {}
 }
@@ -9,6 +9,8 @@ import com.slothbucket.blackduck.common.FluentLog;
 public class TaskIconView extends ImageView {
     private static final FluentLog logger = FluentLog.loggerFor("blackduck", TaskIconView.class);
 
+    private String boundIconId;
+
     public TaskIconView(Context context) {
         super(context);
     }
@@ -21,6 +23,15 @@ public class TaskIconView extends ImageView {
         super(context, attrs, defStyle);
     }
 
+    /** ID of the icon this view should currently display, or null for none. */
+    String getBoundIconId() {
+        return boundIconId;
+    }
+
+    void setBoundIconId(String iconId) {
+        boundIconId = iconId;
+    }
+
     @Override
     public void onMeasure(int measuredWidth, int measuredHeight) {
         super.onMeasure(measuredWidth, measuredHeight);
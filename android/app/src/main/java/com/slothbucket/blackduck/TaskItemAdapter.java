@@ -1,78 +1,261 @@
 package com.slothbucket.blackduck;
 
 import android.content.Context;
+import android.graphics.drawable.ColorDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import com.slothbucket.blackduck.client.BlackDuckService;
-import com.slothbucket.blackduck.client.Constants;
-import com.slothbucket.blackduck.client.RequestPayload;
-import com.slothbucket.blackduck.client.ServiceRequest;
+import com.slothbucket.blackduck.client.BlackDuckClient;
+import com.slothbucket.blackduck.client.ResponseCallback;
+import com.slothbucket.blackduck.client.ServiceResponse;
 import com.slothbucket.blackduck.common.FluentLog;
 import com.slothbucket.blackduck.common.Preconditions;
 import com.slothbucket.blackduck.models.Task;
 import com.slothbucket.blackduck.models.TaskIcon;
+import com.slothbucket.blackduck.models.TaskSnapshot;
 import com.slothbucket.blackduck.models.TaskStateManager;
 
-class TaskItemAdapter extends BaseAdapter {
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Binds task snapshots to the task grid.
+ *
+ * <p>Each new snapshot is diffed against the one on screen on a background thread, and only the
+ * tiles that were inserted, removed, moved or changed are rebound; a changed tile rebinds just its
+ * label or its icon. A diff that finishes after a newer snapshot arrived is thrown away.
+ */
+class TaskItemAdapter extends RecyclerView.Adapter<TaskItemAdapter.ViewHolder> {
     private static final FluentLog logger = FluentLog.loggerFor("blackduck", TaskItemAdapter.class);
 
-    private final Context context;
+    // Decoded icons may use up to this fraction of the heap.
+    private static final int ICON_CACHE_MEMORY_FRACTION = 8;
+
+    // Partial rebinds, combined as bit flags.
+    private static final int PAYLOAD_LABEL = 1;
+    private static final int PAYLOAD_ICON = 2;
+
+    private static class LoggingCallback implements ResponseCallback {
+        private final String operation;
+
+        LoggingCallback(String operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void onSuccess(ServiceResponse response) {
+            logger.atDebug().log("%s succeeded.", operation);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            logger.atError().withCause(cause).log("%s failed.", operation);
+        }
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TaskIconView iconView;
+        final TextView titleView;
+
+        ViewHolder(View view) {
+            super(view);
+            iconView = (TaskIconView) view.findViewById(R.id.task_icon);
+            titleView = (TextView) view.findViewById(R.id.task_title);
+        }
+    }
+
+    /** Matches tiles by task ID, and compares only what a tile shows. */
+    private static class SnapshotDiffCallback extends DiffUtil.Callback {
+        private final TaskSnapshot oldSnapshot;
+        private final TaskSnapshot newSnapshot;
+
+        SnapshotDiffCallback(TaskSnapshot oldSnapshot, TaskSnapshot newSnapshot) {
+            this.oldSnapshot = oldSnapshot;
+            this.newSnapshot = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldSnapshot.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newSnapshot.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldSnapshot.getTask(oldPosition).id()
+                .equals(newSnapshot.getTask(newPosition).id());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return getChangePayload(oldPosition, newPosition) == null;
+        }
+
+        @Override
+        public Object getChangePayload(int oldPosition, int newPosition) {
+            int changes = 0;
+            if (!oldSnapshot.getLabel(oldPosition).equals(newSnapshot.getLabel(newPosition))) {
+                changes |= PAYLOAD_LABEL;
+            }
+            if (!oldSnapshot.getTask(oldPosition).iconId()
+                    .equals(newSnapshot.getTask(newPosition).iconId())) {
+                changes |= PAYLOAD_ICON;
+            }
+            return (changes != 0) ? changes : null;
+        }
+    }
+
     private final TaskStateManager taskStateManager;
+    private final BlackDuckClient client;
     private final LayoutInflater inflater;
+    private final IconBitmapCache iconCache;
+    private final ExecutorService differ = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Icons that some tile was bound to before they were fetched.
+    private final Set<String> missingIconIds = new HashSet<>();
+    private TaskSnapshot snapshot;
+    private TaskSnapshot latestSnapshot;
 
-    TaskItemAdapter(Context context, TaskStateManager taskStateManager) {
+    TaskItemAdapter(Context context, TaskStateManager taskStateManager, BlackDuckClient client) {
         super();
-        this.context = context;
         this.taskStateManager = Preconditions.checkNotNull(taskStateManager);
+        this.client = Preconditions.checkNotNull(client);
         this.inflater = LayoutInflater.from(context);
+        this.snapshot = taskStateManager.getSnapshot();
+        this.latestSnapshot = snapshot;
+        this.iconCache =
+            new IconBitmapCache(
+                (int) (Runtime.getRuntime().maxMemory() / ICON_CACHE_MEMORY_FRACTION),
+                new ColorDrawable(ContextCompat.getColor(context, R.color.taskIconPlaceholder)));
     }
 
-    @Override
-    public int getCount() {
-        return taskStateManager.getTaskCount();
+    /**
+     * Shows a new snapshot of the task state. Must be called on the main thread.
+     */
+    void setSnapshot(TaskSnapshot newSnapshot) {
+        Preconditions.checkNotNull(newSnapshot);
+        if (newSnapshot == latestSnapshot) {
+            // Republished because icons arrived; a pending diff will pick them up when applied.
+            if (newSnapshot == snapshot) {
+                rebindFetchedIcons();
+            }
+            return;
+        }
+
+        latestSnapshot = newSnapshot;
+        final TaskSnapshot oldSnapshot = snapshot;
+        differ.execute(
+            new Runnable() {
+                @Override
+                public void run() {
+                    final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new SnapshotDiffCallback(oldSnapshot, newSnapshot));
+                    mainHandler.post(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                applyDiff(oldSnapshot, newSnapshot, diff);
+                            }
+                        });
+                }
+            });
+    }
+
+    // Called on the main thread.
+    private void applyDiff(
+            TaskSnapshot oldSnapshot, TaskSnapshot newSnapshot, DiffUtil.DiffResult diff) {
+        if (newSnapshot != latestSnapshot || oldSnapshot != snapshot) {
+            logger.atDebug().log("Dropping diff for superseded snapshot %d.", newSnapshot.version());
+            return;
+        }
+        snapshot = newSnapshot;
+        diff.dispatchUpdatesTo(this);
+        rebindFetchedIcons();
+    }
+
+    /** Rebinds the icon of every tile that showed a placeholder for an icon fetched since. */
+    private void rebindFetchedIcons() {
+        if (missingIconIds.isEmpty()) {
+            return;
+        }
+        Set<String> fetchedIconIds = new HashSet<>();
+        for (String iconId : missingIconIds) {
+            if (taskStateManager.getTaskIconById(iconId) != null) {
+                fetchedIconIds.add(iconId);
+            }
+        }
+        missingIconIds.removeAll(fetchedIconIds);
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (fetchedIconIds.contains(snapshot.getTask(i).iconId())) {
+                notifyItemChanged(i, PAYLOAD_ICON);
+            }
+        }
     }
 
     @Override
-    public Object getItem(int i) {
-        return taskStateManager.getTasksSortedByAppName().get(i);
+    public int getItemCount() {
+        return snapshot.size();
     }
 
     @Override
-    public long getItemId(int i) {
-        return i;
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(inflater.inflate(R.layout.taskgrid_item, parent, false));
     }
 
     @Override
-    public View getView(int i, View view, ViewGroup viewGroup) {
-        TaskIconView iconView;
-        TextView titleView;
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        bindIcon(holder, position);
+        bindLabel(holder, position);
+    }
 
-        if (view == null) {
-            // Construct view from layout XML.
-            view = inflater.inflate(R.layout.taskgrid_item, viewGroup, false);
-            view.setTag(R.id.task_icon, view.findViewById(R.id.task_icon));
-            view.setTag(R.id.task_title, view.findViewById(R.id.task_title));
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
         }
 
-        iconView = (TaskIconView) view.getTag(R.id.task_icon);
-        titleView = (TextView) view.getTag(R.id.task_title);
+        int changes = 0;
+        for (Object payload : payloads) {
+            changes |= (Integer) payload;
+        }
+        if ((changes & PAYLOAD_ICON) != 0) {
+            bindIcon(holder, position);
+        }
+        if ((changes & PAYLOAD_LABEL) != 0) {
+            bindLabel(holder, position);
+        }
+    }
 
-        Task task = (Task) getItem(i);
-        TaskIcon icon = taskStateManager.getTaskIconById(task.iconId());
-        if (icon != null) {
-            // TODO: Set a default bitmap resource when icon is not available.
-            iconView.setImageBitmap(icon.getPixelsAsBitmap());
+    private void bindIcon(ViewHolder holder, int position) {
+        String iconId = snapshot.getTask(position).iconId();
+        TaskIcon icon = taskStateManager.getTaskIconById(iconId);
+        if (icon == null) {
+            missingIconIds.add(iconId);
         }
-        titleView.setText(getDisplayText(task));
-        return view;
+        iconCache.bind(holder.iconView, icon);
+    }
+
+    private void bindLabel(ViewHolder holder, int position) {
+        holder.titleView.setText(snapshot.getLabel(position));
     }
 
-    boolean onFlingItemUp(int itemId) {
-        Task task = (Task) getItem(itemId);
+    boolean onFlingItemUp(int position) {
+        Task task = getTask(position);
         if (task != null) {
             scaleTask(task.id(), "maximize");
             return true;
@@ -80,8 +263,8 @@ class TaskItemAdapter extends BaseAdapter {
         return false;
     }
 
-    boolean onFlingItemDown(int itemId) {
-        Task task = (Task) getItem(itemId);
+    boolean onFlingItemDown(int position) {
+        Task task = getTask(position);
         if (task != null) {
             scaleTask(task.id(), "unmaximize");
             return true;
@@ -89,25 +272,25 @@ class TaskItemAdapter extends BaseAdapter {
         return false;
     }
 
+    void close() {
+        differ.shutdownNow();
+        iconCache.close();
+    }
+
+    boolean onItemClicked(int position) {
+        Task task = getTask(position);
+        if (task != null) {
+            client.activateTask(task.id()).addCallback(new LoggingCallback("Task activation"));
+            return true;
+        }
+        return false;
+    }
+
+    private Task getTask(int position) {
+        return (position >= 0 && position < snapshot.size()) ? snapshot.getTask(position) : null;
+    }
+
     private void scaleTask(String taskId, String scaleAction) {
-         ServiceRequest serviceRequest =
-            ServiceRequest.builder()
-                .setRequestId(RequestConstants.REQUEST_SCALE_TASK)
-                    .setCommand(Constants.COMMAND_SCALE_TASK)
-                    .setPayload(
-                        RequestPayload.builder()
-                        .setTaskId(taskId)
-                        .setScaleAction(scaleAction)
-                        .build())
-                .build();
-        BlackDuckService.sendRequest(context, serviceRequest);
-    }
-
-    private static String getDisplayText(Task task) {
-        String title = task.title();
-        if (title.length() > 12) {
-            title = String.format("%s...", title.substring(0, 12));
-        }
-        return String.format("%s - %s", task.applicationName(), title);
+        client.scaleTask(taskId, scaleAction).addCallback(new LoggingCallback("Task scaling"));
     }
 }
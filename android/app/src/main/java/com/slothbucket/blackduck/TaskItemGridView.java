@@ -1,27 +1,31 @@
 package com.slothbucket.blackduck;
 
 import android.content.Context;
+import android.graphics.Rect;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.GridView;
 
-import com.slothbucket.blackduck.client.BlackDuckService;
-import com.slothbucket.blackduck.client.Constants;
-import com.slothbucket.blackduck.client.RequestPayload;
-import com.slothbucket.blackduck.client.ServiceRequest;
-import com.slothbucket.blackduck.models.Task;
+class TaskItemGridView extends RecyclerView {
+    private static final int DEFAULT_NUM_COLUMNS = 3;
 
-class TaskItemGridView extends GridView {
-     private class ItemTouchListener implements View.OnTouchListener {
+    private class ItemTouchListener extends RecyclerView.SimpleOnItemTouchListener {
         private static final float DIFF_THRESHOLD = 100;
         private static final float VELOCITY_THRESHOLD = 1000;
 
         private final GestureDetector gestureDetector;
         private final GestureDetector.SimpleOnGestureListener gestureListener =
             new GestureDetector.SimpleOnGestureListener() {
+                @Override
+                public boolean onSingleTapUp(MotionEvent e) {
+                    int position = getPositionByCoordinate(e.getX(), e.getY());
+                    return position != NO_POSITION
+                        && getTaskItemAdapter().onItemClicked(position);
+                }
+
                 @Override
                 public boolean onFling(
                         MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
@@ -30,11 +34,11 @@ class TaskItemGridView extends GridView {
                     if (Math.abs(diffX) < Math.abs(diffY) &&
                             Math.abs(diffY) >= DIFF_THRESHOLD &&
                             Math.abs(velocityY) >= VELOCITY_THRESHOLD) {
-                        int itemId = getItemIdByCoordinate((int)e1.getX(), (int)e1.getY());
-                        if (itemId >= 0) {
+                        int position = getPositionByCoordinate(e1.getX(), e1.getY());
+                        if (position != NO_POSITION) {
                             return (diffY < 0)
-                                ? getTaskItemAdapter().onFlingItemUp(itemId)
-                                : getTaskItemAdapter().onFlingItemDown(itemId);
+                                ? getTaskItemAdapter().onFlingItemUp(position)
+                                : getTaskItemAdapter().onFlingItemDown(position);
                         }
                     }
                     return false;
@@ -46,50 +50,47 @@ class TaskItemGridView extends GridView {
         }
 
         @Override
-        public boolean onTouch(View view, MotionEvent motionEvent) {
+        public boolean onInterceptTouchEvent(RecyclerView view, MotionEvent motionEvent) {
             return gestureDetector.onTouchEvent(motionEvent);
         }
     }
 
-    private static class ItemClickListener implements AdapterView.OnItemClickListener {
+    /** Leaves half the spacing on every side of each tile, so tiles end up a full gap apart. */
+    private static class SpacingDecoration extends RecyclerView.ItemDecoration {
+        private final int halfSpacing;
+
+        SpacingDecoration(int spacing) {
+            this.halfSpacing = spacing / 2;
+        }
+
         @Override
-        public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-            TaskItemAdapter adapter = (TaskItemAdapter) adapterView.getAdapter();
-            Task task = (Task) adapter.getItem(i);
-
-            if (task != null) {
-                ServiceRequest serviceRequest =
-                    ServiceRequest.builder()
-                        .setRequestId(RequestConstants.REQUEST_ACTIVATE_TASK)
-                        .setCommand(Constants.COMMAND_ACTIVATE_TASK)
-                        .setPayload(
-                            RequestPayload.builder()
-                                .setTaskId(task.id())
-                                .build())
-                        .build();
-                BlackDuckService.sendRequest(view.getContext(), serviceRequest);
-            }
+        public void getItemOffsets(Rect outRect, View view, RecyclerView parent, State state) {
+            outRect.set(halfSpacing, halfSpacing, halfSpacing, halfSpacing);
         }
     }
 
+    private final GridLayoutManager layoutManager;
+
     public TaskItemGridView(Context context) {
-        super(context);
-        setListeners();
+        this(context, null);
     }
 
     public TaskItemGridView(Context context, AttributeSet attrs) {
-        super(context, attrs);
-        setListeners();
+        this(context, attrs, 0);
     }
 
     public TaskItemGridView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        setListeners();
+        layoutManager = new GridLayoutManager(context, DEFAULT_NUM_COLUMNS);
+        setLayoutManager(layoutManager);
+        addItemDecoration(
+            new SpacingDecoration(
+                getResources().getDimensionPixelSize(R.dimen.task_grid_spacing)));
+        addOnItemTouchListener(new ItemTouchListener());
     }
 
-    private void setListeners() {
-        super.setOnTouchListener(new ItemTouchListener());
-        super.setOnItemClickListener(new ItemClickListener());
+    void setNumColumns(int numColumns) {
+        layoutManager.setSpanCount(numColumns);
     }
 
     @Override
@@ -97,27 +98,13 @@ class TaskItemGridView extends GridView {
         throw new UnsupportedOperationException("Cannot set OnTouchListener");
     }
 
-    @Override
-    public void setOnItemClickListener(OnItemClickListener listener) {
-        throw new UnsupportedOperationException("Cannot set OnItemClickListener");
-    }
-
     private TaskItemAdapter getTaskItemAdapter() {
         return (TaskItemAdapter) getAdapter();
     }
 
-    private int getItemIdByCoordinate(int x, int y) {
-        for (int i = 0; i < getChildCount(); i++) {
-            View view = getChildAt(i);
-            if (view != null && inView(x, y, view)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static boolean inView(int x, int y, View view) {
-        return x <= view.getRight() && x >= view.getLeft() &&
-                y <= view.getBottom() && y >= view.getTop();
+    /** Returns the adapter position of the tile under a point, or {@code NO_POSITION}. */
+    private int getPositionByCoordinate(float x, float y) {
+        View view = findChildViewUnder(x, y);
+        return (view != null) ? getChildAdapterPosition(view) : NO_POSITION;
     }
 }
@@ -0,0 +1,316 @@
+package com.slothbucket.blackduck.client;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import com.slothbucket.blackduck.common.FluentLog;
+import com.slothbucket.blackduck.models.IconCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client API for the BlackDuck service.
+ *
+ * <p>Every call is assigned its own request ID and returns a {@link ResponseFuture}, so any number
+ * of calls (including several of the same command) may be outstanding at once and each caller
+ * receives exactly the response to its own request.
+ *
+ * <p>The client binds to {@link BlackDuckService} and exchanges requests and responses with it
+ * through its {@link ServiceChannel}, without parcelling them. Calls made before the binding is
+ * established are held until it is. Callbacks run on the main thread.
+ */
+public class BlackDuckClient {
+    private static final FluentLog logger = FluentLog.loggerFor("blackduck", BlackDuckClient.class);
+
+    // Small enough that the first tasks and icons render quickly and other responses can slip in
+    // between chunks.
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private final Map<Integer, ResponseFuture> pendingCalls = new ConcurrentHashMap<>();
+    private final Map<Integer, ChunkListener> chunkListeners = new ConcurrentHashMap<>();
+    private volatile TaskUpdateListener taskUpdateListener;
+
+    // Guarded by this. Requests wait here until the service is bound.
+    private final List<ServiceRequest> unboundRequests = new ArrayList<>();
+    private ServiceChannel channel;
+
+    // Called on the service's threads; everything is handed to the main thread as is.
+    private final ServiceChannel.Listener channelListener = new ServiceChannel.Listener() {
+        @Override
+        public void onServiceResponse(final ServiceResponse response) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    BlackDuckClient.this.onServiceResponse(response);
+                }
+            });
+        }
+
+        @Override
+        public void onNotification(final ServiceResponse notification) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    TaskUpdateListener listener = taskUpdateListener;
+                    if (listener != null) {
+                        listener.onTasksChanged(notification.payload());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onRequestFailed(final int requestId, final String reason) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    chunkListeners.remove(requestId);
+                    ResponseFuture future = pendingCalls.remove(requestId);
+                    if (future != null) {
+                        future.setException(new IOException(reason));
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onDeviceError(final String reason) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    failPendingCalls(new IOException(reason));
+                }
+            });
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            ServiceChannel boundChannel = ((BlackDuckService.LocalBinder) binder).getChannel();
+            boundChannel.addListener(channelListener);
+            List<ServiceRequest> requests;
+            synchronized (BlackDuckClient.this) {
+                channel = boundChannel;
+                requests = new ArrayList<>(unboundRequests);
+                unboundRequests.clear();
+            }
+            for (ServiceRequest request : requests) {
+                boundChannel.sendRequest(request);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            synchronized (BlackDuckClient.this) {
+                channel = null;
+            }
+            failPendingCalls(new IOException("Service disconnected."));
+        }
+    };
+
+    public BlackDuckClient(Context context) {
+        this.context = context.getApplicationContext();
+        this.context.bindService(
+            new Intent(this.context, BlackDuckService.class),
+            serviceConnection,
+            Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Negotiates per-session options. Icon codecs are given as {@link IconCodec} wire names in
+     * order of preference; the one chosen is returned in the response's {@code iconCodec}.
+     */
+    public ResponseFuture openSession(List<String> iconCodecs) {
+        return call(
+            Constants.COMMAND_OPEN_SESSION,
+            RequestPayload.builder().setIconCodecs(iconCodecs).setStringTable(true).build());
+    }
+
+    public ResponseFuture listTasks() {
+        return listTasks(null);
+    }
+
+    /**
+     * Lists every task, handing batches of tasks to the listener while the response is still
+     * arriving when one is given. The remaining tasks arrive with the response that completes the
+     * future.
+     */
+    public ResponseFuture listTasks(ChunkListener listener) {
+        RequestPayload payload =
+            RequestPayload.builder().setMaxChunkBytes(listener != null ? CHUNK_BYTES : 0).build();
+        return call(Constants.COMMAND_LIST_TASKS, payload, listener);
+    }
+
+    public ResponseFuture listUpdatedTasks(long lastUpdateTimestamp) {
+        return call(
+            Constants.COMMAND_LIST_UPDATED_TASKS,
+            RequestPayload.builder().setLastUpdateTimestamp(lastUpdateTimestamp).build());
+    }
+
+    /**
+     * Fetches the tasks changed after the given change journal sequence. The response carries the
+     * sequence to pass next time, and is a full listing flagged with {@code reset} if the service
+     * can no longer answer for the given one. Tasks changed since then may come as patches,
+     * relative to the response's {@code base_sequence}.
+     */
+    public ResponseFuture syncTasks(long sinceSequence) {
+        return call(
+            Constants.COMMAND_SYNC_TASKS,
+            RequestPayload.builder()
+                .setSinceSequence(sinceSequence)
+                .setAcceptPatches(true)
+                .build());
+    }
+
+    public ResponseFuture batchGetIcons(Iterable<String> iconIds) {
+        return batchGetIcons(iconIds, null);
+    }
+
+    /**
+     * Fetches icons, streamed in bounded chunks when a listener is given. Each chunk carries some
+     * of the icons; the remainder arrive with the response that completes the future.
+     */
+    public ResponseFuture batchGetIcons(Iterable<String> iconIds, ChunkListener listener) {
+        ArrayList<String> iconIdsList = new ArrayList<>();
+        for (String iconId : iconIds) {
+            iconIdsList.add(iconId);
+        }
+        RequestPayload payload =
+            RequestPayload.builder()
+                .setIconIds(iconIdsList)
+                .setMaxChunkBytes(listener != null ? CHUNK_BYTES : 0)
+                .build();
+        return call(Constants.COMMAND_BATCHGET_ICONS, payload, listener);
+    }
+
+    public ResponseFuture activateTask(String taskId) {
+        return call(
+            Constants.COMMAND_ACTIVATE_TASK,
+            RequestPayload.builder().setTaskId(taskId).build());
+    }
+
+    public ResponseFuture scaleTask(String taskId, String scaleAction) {
+        return call(
+            Constants.COMMAND_SCALE_TASK,
+            RequestPayload.builder().setTaskId(taskId).setScaleAction(scaleAction).build());
+    }
+
+    /**
+     * Asks the service to push task changes as they happen. Pushed changes are delivered to the
+     * listener for as long as the connection lasts, and may come as patches.
+     */
+    public ResponseFuture subscribeTasks(TaskUpdateListener listener) {
+        taskUpdateListener = listener;
+        return call(
+            Constants.COMMAND_SUBSCRIBE_TASKS,
+            RequestPayload.builder().setAcceptPatches(true).build());
+    }
+
+    /**
+     * Sends a request for an arbitrary command with a freshly allocated request ID.
+     */
+    public ResponseFuture call(String command, RequestPayload payload) {
+        return call(command, payload, null);
+    }
+
+    private ResponseFuture call(String command, RequestPayload payload, ChunkListener listener) {
+        final int requestId = nextRequestId.getAndIncrement();
+        ResponseFuture future = new ResponseFuture(requestId, new Runnable() {
+            @Override
+            public void run() {
+                // Nothing is left to complete, so any response that still comes is dropped.
+                pendingCalls.remove(requestId);
+                chunkListeners.remove(requestId);
+            }
+        });
+        pendingCalls.put(requestId, future);
+        if (listener != null) {
+            chunkListeners.put(requestId, listener);
+        }
+
+        ServiceRequest request =
+            ServiceRequest.builder()
+                .setRequestId(requestId)
+                .setCommand(command)
+                .setPayload(payload)
+                .build();
+        ServiceChannel boundChannel;
+        synchronized (this) {
+            boundChannel = channel;
+            if (boundChannel == null) {
+                unboundRequests.add(request);
+            }
+        }
+        if (boundChannel != null) {
+            boundChannel.sendRequest(request);
+        }
+        return future;
+    }
+
+    /**
+     * Stops listening for responses and fails every call still outstanding.
+     */
+    public void close() {
+        synchronized (this) {
+            if (channel != null) {
+                channel.removeListener(channelListener);
+                channel = null;
+            }
+            unboundRequests.clear();
+        }
+        context.unbindService(serviceConnection);
+        taskUpdateListener = null;
+        failPendingCalls(new IOException("Client closed."));
+    }
+
+    private void onServiceResponse(ServiceResponse response) {
+        int requestId = response.requestId();
+        if (response.more()) {
+            ChunkListener listener = chunkListeners.get(requestId);
+            if (listener != null && pendingCalls.containsKey(requestId)) {
+                listener.onChunk(response);
+            } else {
+                logger.atWarning().log("Unexpected response chunk for request ID %d", requestId);
+            }
+            return;
+        }
+
+        chunkListeners.remove(requestId);
+        ResponseFuture future = pendingCalls.remove(requestId);
+        if (future == null) {
+            logger.atWarning().log(
+                "Unhandled service response from request ID %d", response.requestId());
+            return;
+        }
+
+        if (Constants.STATUS_OK.equals(response.status())) {
+            future.set(response);
+        } else {
+            future.setException(new ServiceException(response.status(), response.error()));
+        }
+    }
+
+    private void failPendingCalls(Throwable cause) {
+        for (Integer requestId : pendingCalls.keySet()) {
+            chunkListeners.remove(requestId);
+            ResponseFuture future = pendingCalls.remove(requestId);
+            if (future != null) {
+                future.setException(cause);
+            }
+        }
+    }
+}
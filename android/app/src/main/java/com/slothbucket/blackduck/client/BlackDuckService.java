@@ -2,9 +2,10 @@ package com.slothbucket.blackduck.client;
 
 import android.app.Service;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
@@ -14,18 +15,122 @@ import android.support.v4.content.LocalBroadcastManager;
 import com.slothbucket.blackduck.common.FluentLog;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Owns the connection to the host. Clients in this process bind to it and talk through its
+ * {@link ServiceChannel}; requests sent with {@link #sendRequest} Intents are answered with
+ * broadcasts instead.
+ *
+ * <p>The connection starts out over RFCOMM. If the host says, when a session is opened, that it
+ * also listens on TCP, the service moves over to TCP when it is reachable. If the connection in
+ * use drops, the service reconnects over the fastest transport still reachable, retrying with
+ * exponential backoff until one is. Either way, the session and task subscription are set up
+ * again on the new connection before it is used, and a sync from the last sequence seen is pushed
+ * to subscribers, so clients carry on unaware. Connecting never blocks the main thread, and every
+ * change of {@link LinkState} is broadcast.
+ */
 public class BlackDuckService extends Service {
     private static final FluentLog logger =
         FluentLog.loggerFor("blackduck", BlackDuckService.class);
     private static final UUID SERVICE_UUID =
         UUID.fromString("7f759fe2-b22a-11e6-ba35-37c9859e1514");
 
+    /** Returned when binding, for clients in the same process. */
+    public class LocalBinder extends Binder {
+        /** Returns a new channel, which only hears back about the requests sent through it. */
+        public ServiceChannel getChannel() {
+            return new Channel();
+        }
+    }
+
+    private class Channel implements ServiceChannel {
+        private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void sendRequest(ServiceRequest request) {
+            dispatchRequest(request, this);
+        }
+
+        @Override
+        public void addListener(Listener listener) {
+            listeners.add(listener);
+            channelListeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(Listener listener) {
+            listeners.remove(listener);
+            channelListeners.remove(listener);
+        }
+    }
+
+    /** A client's request in flight, and where its responses go. */
+    private static class PendingRequest {
+        // The ID the client gave the request, which its responses are addressed to.
+        final int requestId;
+        // Null if the request came in an Intent, whose responses go out as broadcasts.
+        final Channel channel;
+
+        PendingRequest(int requestId, Channel channel) {
+            this.requestId = requestId;
+            this.channel = channel;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    // Every channel's listeners, which all receive notifications.
+    private final List<ServiceChannel.Listener> channelListeners = new CopyOnWriteArrayList<>();
+    // Every client numbers its requests from 1, so they are renumbered before being sent.
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private final Map<Integer, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+
+    // Connecting blocks, so it happens here rather than on the looper that writes requests.
+    private final ScheduledExecutorService connector =
+        Executors.newSingleThreadScheduledExecutor();
+    private final ReconnectBackoff backoff = new ReconnectBackoff();
+    private final Runnable connectTask =
+        new Runnable() {
+            @Override
+            public void run() {
+                connect();
+            }
+        };
+    // Guarded by this.
+    private ScheduledFuture<?> pendingConnect;
+    private LinkState linkState = LinkState.DISCONNECTED;
+    // Requests the service makes on its own count down from here, clear of clients' IDs.
+    private final AtomicInteger nextInternalRequestId = new AtomicInteger(-1);
+    // The last requests that set up the session, replayed on every new connection.
+    private volatile ServiceRequest openSessionRequest;
+    private volatile ServiceRequest subscribeRequest;
+    private volatile long lastSequence = 0;
+    private volatile int catchUpRequestId = 0;
+    // Where the host was last known to be reachable.
+    private volatile List<Transport.Factory> tcpFactories =
+        Collections.<Transport.Factory>emptyList();
+    private volatile Transport.Factory rfcommFactory;
+
+    private HandlerThread handlerThread;
     private Looper looper;
-    private ServiceConnectionHandler connectionHandler;
+    private volatile ServiceConnectionHandler connectionHandler;
     private LocalBroadcastManager broadcastManager;
 
+    /**
+     * Sends a request in an Intent, for callers that cannot bind. Prefer {@link ServiceChannel},
+     * which does not parcel requests and responses.
+     */
     public static void sendRequest(Context context, ServiceRequest request) {
         Intent intent = new Intent(context, BlackDuckService.class);
         intent.setAction(Constants.ACTION_SERVICE_REQUEST);
@@ -35,7 +140,7 @@ public class BlackDuckService extends Service {
 
     @Override
     public void onCreate() {
-        HandlerThread handlerThread =
+        handlerThread =
             new HandlerThread("BlackDuckService", Process.THREAD_PRIORITY_BACKGROUND);
         handlerThread.start();
 
@@ -51,38 +156,17 @@ public class BlackDuckService extends Service {
             logger.atDebug().log("Received service service action: %s", action);
             if (Constants.ACTION_CONNECT_DEVICE.equals(action)) {
                 BluetoothDevice device = intent.getParcelableExtra(Constants.EXTRA_DEVICE);
-                BluetoothSocket socket;
-                try {
-                    socket = device.createRfcommSocketToServiceRecord(SERVICE_UUID);
-                    socket.connect();
-
+                rfcommFactory = RfcommTransport.factory(device, SERVICE_UUID);
+                if (getLinkState() == LinkState.CONNECTED) {
+                    // Connected for an earlier caller; this one still has a session to open.
                     broadcastManager.sendBroadcast(new Intent(Constants.ACTION_DEVICE_CONNECTED));
-
-                    connectionHandler =
-                        new ServiceConnectionHandler(looper, socket, new MessagePackIoBridge()) {
-                            @Override
-                            void onServiceResponse(ServiceResponse response) {
-                                Intent intent = new Intent(Constants.ACTION_SERVICE_RESPONSE);
-                                intent.putExtra(Constants.EXTRA_SERVICE_RESPONSE, response);
-                                broadcastManager.sendBroadcast(intent);
-                            }
-                        };
-
-                    logger.atInfo().log(
-                        "Established connection with device %s", device.getAddress());
-                } catch (IOException e) {
-                    logger.atError().withCause(e).log(
-                        "Failed to establish Bluetooth connection with device.");
-                    onDeviceError(e);
+                } else if (getLinkState() == LinkState.DISCONNECTED) {
+                    setLinkState(LinkState.CONNECTING);
+                    scheduleConnect(0);
                 }
             } else if (Constants.ACTION_SERVICE_REQUEST.equals(action)) {
                 ServiceRequest request = intent.getParcelableExtra(Constants.EXTRA_SERVICE_REQUEST);
-                if (connectionHandler != null) {
-                    connectionHandler.sendRequest(request);
-                } else {
-                    logger.atError().log(
-                        "Attempted to send request without a connection available.");
-                }
+                dispatchRequest(request, null);
             } else {
                 logger.atWarning().log("Unhandled action sent to service: %s", action);
             }
@@ -93,21 +177,345 @@ public class BlackDuckService extends Service {
 
     @Override
     public IBinder onBind(Intent intent) {
-        // Do not bind this service.
-        return null;
+        return binder;
     }
 
     @Override
     public void onDestroy() {
+        synchronized (this) {
+            connector.shutdownNow();
+        }
+        setLinkState(LinkState.DISCONNECTED);
         if (connectionHandler != null) {
             logger.atDebug().log("Closing connection.");
             connectionHandler.close();
         }
+        // Requests already queued are still written, or failed, before the thread goes.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            handlerThread.quitSafely();
+        } else {
+            handlerThread.quit();
+        }
+    }
+
+    private ServiceConnectionHandler newConnectionHandler(Transport transport) {
+        return new ServiceConnectionHandler(looper, transport, new MessagePackIoBridge()) {
+            @Override
+            void onServiceResponse(ServiceRequest request, ServiceResponse response) {
+                ResponsePayload payload = response.payload();
+                lastSequence = Math.max(lastSequence, payload.sequence());
+                // Replayed sessions advertise TCP again; only a client's own opening counts.
+                if (Constants.COMMAND_OPEN_SESSION.equals(request.command())
+                        && request.requestId() > 0
+                        && payload.tcpPort() > 0) {
+                    onTcpAdvertised(payload.tcpAddresses(), payload.tcpPort());
+                }
+                deliverResponse(response);
+            }
+
+            @Override
+            void onNotification(ServiceResponse notification) {
+                // A connection being retired may still push changes; its successor has them too.
+                if (this == connectionHandler) {
+                    lastSequence = Math.max(lastSequence, notification.payload().sequence());
+                    deliverNotification(notification);
+                }
+            }
+
+            @Override
+            void onRequestFailed(ServiceRequest request, IOException cause) {
+                deliverFailure(request.requestId(), cause.getMessage());
+            }
+
+            @Override
+            void onConnectionLost(IOException cause) {
+                if (this == connectionHandler) {
+                    onActiveConnectionLost(this, cause);
+                }
+            }
+        };
+    }
+
+    /** Moves over to TCP at the first of the given addresses that is reachable. */
+    private void onTcpAdvertised(List<String> addresses, int port) {
+        List<Transport.Factory> factories = new ArrayList<>();
+        for (String address : addresses) {
+            factories.add(TcpTransport.factory(address, port));
+        }
+        tcpFactories = factories;
+
+        ServiceConnectionHandler handler = connectionHandler;
+        if (handler == null || TcpTransport.NAME.equals(handler.getTransportName())) {
+            return;
+        }
+        synchronized (this) {
+            // The reader thread can outlive the service by a response or two.
+            if (connector.isShutdown()) {
+                return;
+            }
+            connector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // A lost connection is replaced by connect(), which tries TCP first anyway.
+                    if (connectionHandler == null) {
+                        return;
+                    }
+                    Transport transport = connectFirst(tcpFactories);
+                    if (transport != null) {
+                        switchTo(transport);
+                    }
+                }
+            });
+        }
+    }
+
+    private void onActiveConnectionLost(ServiceConnectionHandler handler, IOException cause) {
+        logger.atWarning().withCause(cause).log("Lost connection; reconnecting.");
+        // Requests fail fast until a new connection is up, rather than going to a dead one.
+        connectionHandler = null;
+        handler.close();
+        setLinkState(LinkState.RECONNECTING);
+        // Most dropouts are brief, so the first attempt is made straight away.
+        scheduleConnect(0);
+    }
+
+    private synchronized void scheduleConnect(long delayMillis) {
+        if ((pendingConnect != null && !pendingConnect.isDone()) || connector.isShutdown()) {
+            return;
+        }
+        pendingConnect = connector.schedule(connectTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs on the connector. Connects over the fastest transport, or schedules another try. */
+    private void connect() {
+        synchronized (this) {
+            pendingConnect = null;
+        }
+        List<Transport.Factory> factories = new ArrayList<>(tcpFactories);
+        if (rfcommFactory != null) {
+            factories.add(rfcommFactory);
+        }
+        Transport transport = connectFirst(factories);
+        if (transport == null) {
+            if (backoff.failures() == 0) {
+                onDeviceError(new IOException("Could not connect to the host."));
+            }
+            long delayMillis = backoff.nextDelayMillis();
+            logger.atInfo().log("Retrying connection in %d ms.", delayMillis);
+            scheduleConnect(delayMillis);
+            return;
+        }
+
+        if (connector.isShutdown()) {
+            closeQuietly(transport);
+            return;
+        }
+        backoff.reset();
+        switchTo(transport);
+        // Only the first connection is announced; later ones resume the session themselves.
+        boolean reconnected = setLinkState(LinkState.CONNECTED) == LinkState.RECONNECTING;
+        if (!reconnected) {
+            broadcastManager.sendBroadcast(new Intent(Constants.ACTION_DEVICE_CONNECTED));
+        }
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Failed to close transport.");
+        }
+    }
+
+    private synchronized LinkState getLinkState() {
+        return linkState;
+    }
+
+    /** Broadcasts the new state if it changed, and returns the previous one. */
+    private LinkState setLinkState(LinkState state) {
+        LinkState previous;
+        synchronized (this) {
+            previous = linkState;
+            linkState = state;
+        }
+        if (previous != state) {
+            logger.atInfo().log("Link state %s -> %s.", previous, state);
+            Intent intent = new Intent(Constants.ACTION_LINK_STATE_CHANGED);
+            intent.putExtra(Constants.EXTRA_LINK_STATE, state);
+            broadcastManager.sendBroadcast(intent);
+        }
+        return previous;
+    }
+
+    /** Connects with the first factory that succeeds, in order of preference. */
+    private static Transport connectFirst(List<Transport.Factory> factories) {
+        for (Transport.Factory factory : factories) {
+            try {
+                Transport transport = factory.connect();
+                logger.atInfo().log("Connected over %s.", factory.name());
+                return transport;
+            } catch (IOException e) {
+                logger.atInfo().withCause(e).log("Could not connect over %s.", factory.name());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes a newly connected transport the one requests go to. The previous connection is kept
+     * until everything sent on it has been answered.
+     */
+    private void switchTo(Transport transport) {
+        ServiceConnectionHandler previous = connectionHandler;
+        ServiceConnectionHandler handler = newConnectionHandler(transport);
+        replaySession(handler);
+        connectionHandler = handler;
+        if (previous != null) {
+            previous.closeWhenIdle();
+        }
+    }
+
+    /**
+     * Sets the session up on a new connection the way clients last did, and catches subscribers
+     * up on whatever changed while no connection was pushing to them.
+     */
+    private void replaySession(ServiceConnectionHandler handler) {
+        ServiceRequest openSession = openSessionRequest;
+        if (openSession != null) {
+            handler.sendRequest(withInternalRequestId(openSession));
+        }
+        ServiceRequest subscribe = subscribeRequest;
+        if (subscribe != null) {
+            handler.sendRequest(withInternalRequestId(subscribe));
+            ServiceRequest catchUp =
+                ServiceRequest.builder()
+                    .setRequestId(nextInternalRequestId.getAndDecrement())
+                    .setCommand(Constants.COMMAND_SYNC_TASKS)
+                    .setPayload(
+                        RequestPayload.builder()
+                            .setSinceSequence(lastSequence)
+                            .setAcceptPatches(subscribe.payload().acceptPatches())
+                            .build())
+                    .build();
+            catchUpRequestId = catchUp.requestId();
+            handler.sendRequest(catchUp);
+        }
+    }
+
+    private ServiceRequest withInternalRequestId(ServiceRequest request) {
+        return withRequestId(request, nextInternalRequestId.getAndDecrement());
+    }
+
+    private static ServiceRequest withRequestId(ServiceRequest request, int requestId) {
+        return ServiceRequest.builder()
+            .setRequestId(requestId)
+            .setCommand(request.command())
+            .setPayload(request.payload())
+            .build();
+    }
+
+    private void dispatchRequest(ServiceRequest request, Channel channel) {
+        // Recorded before sending, so a connection taking over meanwhile still replays it.
+        if (Constants.COMMAND_OPEN_SESSION.equals(request.command())) {
+            openSessionRequest = request;
+        } else if (Constants.COMMAND_SUBSCRIBE_TASKS.equals(request.command())) {
+            subscribeRequest = request;
+        }
+
+        ServiceRequest outgoing = withRequestId(request, newRequestId());
+        pendingRequests.put(outgoing.requestId(), new PendingRequest(request.requestId(), channel));
+        ServiceConnectionHandler handler = connectionHandler;
+        if (handler != null) {
+            handler.sendRequest(outgoing);
+        } else {
+            logger.atError().log("Attempted to send request without a connection available.");
+            deliverFailure(outgoing.requestId(), "No connection available.");
+        }
+    }
+
+    // Positive, so that it never clashes with the internal IDs, even once it wraps around.
+    private int newRequestId() {
+        int requestId;
+        do {
+            requestId = nextRequestId.getAndIncrement() & Integer.MAX_VALUE;
+        } while (requestId == 0);
+        return requestId;
+    }
+
+    private void deliverResponse(ServiceResponse response) {
+        int requestId = response.requestId();
+        if (requestId < 0) {
+            onInternalResponse(response);
+            return;
+        }
+        PendingRequest pending = response.more()
+            ? pendingRequests.get(requestId)
+            : pendingRequests.remove(requestId);
+        if (pending == null) {
+            logger.atWarning().log("Dropping response for unknown request %d", requestId);
+            return;
+        }
+        ServiceResponse reply = response.withRequestId(pending.requestId);
+        if (pending.channel == null) {
+            Intent intent = new Intent(Constants.ACTION_SERVICE_RESPONSE);
+            intent.putExtra(Constants.EXTRA_SERVICE_RESPONSE, reply);
+            broadcastManager.sendBroadcast(intent);
+            return;
+        }
+        for (ServiceChannel.Listener listener : pending.channel.listeners) {
+            listener.onServiceResponse(reply);
+        }
+    }
+
+    private void onInternalResponse(ServiceResponse response) {
+        if (!Constants.STATUS_OK.equals(response.status())) {
+            logger.atWarning().log(
+                "Replayed request %d failed: %s", response.requestId(), response.error());
+        } else if (response.requestId() == catchUpRequestId && !response.more()) {
+            // Subscribers take in catch-up syncs the same way as pushed changes.
+            deliverNotification(response.withRequestId(Constants.NOTIFICATION_REQUEST_ID));
+        }
+    }
+
+    private void deliverNotification(ServiceResponse notification) {
+        if (channelListeners.isEmpty()) {
+            Intent intent = new Intent(Constants.ACTION_TASKS_CHANGED);
+            intent.putExtra(Constants.EXTRA_SERVICE_RESPONSE, notification);
+            broadcastManager.sendBroadcast(intent);
+            return;
+        }
+        for (ServiceChannel.Listener listener : channelListeners) {
+            listener.onNotification(notification);
+        }
+    }
+
+    private void deliverFailure(int requestId, String reason) {
+        if (requestId < 0) {
+            logger.atWarning().log("Replayed request %d failed: %s", requestId, reason);
+            return;
+        }
+        PendingRequest pending = pendingRequests.remove(requestId);
+        if (pending == null) {
+            return;
+        }
+        if (pending.channel == null) {
+            Intent intent = new Intent(Constants.ACTION_REQUEST_FAILED);
+            intent.putExtra(Constants.EXTRA_REQUEST_ID, pending.requestId);
+            intent.putExtra(Constants.EXTRA_ERROR_MESSAGE, reason);
+            broadcastManager.sendBroadcast(intent);
+            return;
+        }
+        for (ServiceChannel.Listener listener : pending.channel.listeners) {
+            listener.onRequestFailed(pending.requestId, reason);
+        }
     }
 
     private void onDeviceError(Throwable cause) {
         Intent intent = new Intent(Constants.ACTION_DEVICE_ERROR);
         intent.putExtra(Constants.EXTRA_ERROR_MESSAGE, cause.getMessage());
         broadcastManager.sendBroadcast(intent);
+        for (ServiceChannel.Listener listener : channelListeners) {
+            listener.onDeviceError(cause.getMessage());
+        }
     }
 }
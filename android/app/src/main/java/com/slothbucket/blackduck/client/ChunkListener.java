@@ -0,0 +1,10 @@
+package com.slothbucket.blackduck.client;
+
+/**
+ * Receives the intermediate chunks of a streamed response. The final chunk completes the call's
+ * {@link ResponseFuture} instead.
+ */
+public interface ChunkListener {
+    /** Called on the main thread, in order, with each chunk that has more to follow. */
+    void onChunk(ServiceResponse chunk);
+}
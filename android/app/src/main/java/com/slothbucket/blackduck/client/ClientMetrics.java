@@ -0,0 +1,182 @@
+package com.slothbucket.blackduck.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters and histograms showing where the client's time goes: the round trip of
+ * every command, bytes on the wire, response and icon decoding, and request queue depth.
+ *
+ * <p>Recording only locks the first time a name is used, so it is left on in release builds.
+ * Times are kept in microseconds and reported in milliseconds.
+ */
+public final class ClientMetrics {
+
+    public static final String BYTES_SENT = "bytes_sent";
+    public static final String BYTES_RECEIVED = "bytes_received";
+    /** From a response's frame header to its last field decoded, which includes streaming. */
+    public static final String RESPONSE_DECODE = "response_decode";
+    public static final String ICON_DECODE = "icon_decode";
+    /** Requests waiting to be written, sampled whenever one is queued. */
+    public static final String QUEUE_DEPTH = "queue_depth";
+
+    private static final String ROUND_TRIP_PREFIX = "round_trip.";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ClientMetrics GLOBAL = new ClientMetrics();
+
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private volatile long startMillis = System.currentTimeMillis();
+
+    public static ClientMetrics global() {
+        return GLOBAL;
+    }
+
+    /** Records the time from writing a request for the given command to its final response. */
+    public void recordRoundTrip(String command, long nanos) {
+        recordTime(ROUND_TRIP_PREFIX + command, nanos);
+    }
+
+    public void recordTime(String name, long nanos) {
+        get(timers, name).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordValue(String name, long value) {
+        get(histograms, name).record(value);
+    }
+
+    public void add(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            synchronized (counters) {
+                counter = counters.get(name);
+                if (counter == null) {
+                    counter = new AtomicLong();
+                    counters.put(name, counter);
+                }
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /** Returns the timer with the given name, in microseconds, or null if none was recorded. */
+    public Histogram getTimer(String name) {
+        return timers.get(name);
+    }
+
+    public Histogram getRoundTrip(String command) {
+        return timers.get(ROUND_TRIP_PREFIX + command);
+    }
+
+    public Histogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public long getCount(String name) {
+        AtomicLong counter = counters.get(name);
+        return (counter != null) ? counter.get() : 0;
+    }
+
+    public void reset() {
+        for (Histogram histogram : timers.values()) {
+            histogram.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        for (AtomicLong counter : counters.values()) {
+            counter.set(0);
+        }
+        startMillis = System.currentTimeMillis();
+    }
+
+    /** Returns a plain-text table of everything recorded since the last reset. */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            Locale.US, "Over %.1f s%n", (System.currentTimeMillis() - startMillis) / 1000.0));
+
+        appendHeader(report, "time (ms)");
+        for (String name : sortedKeys(timers)) {
+            Histogram timer = timers.get(name);
+            report.append(String.format(
+                Locale.US, "%-28s %7d %8.2f %8.2f %8.2f %8.2f%n",
+                name, timer.count(),
+                timer.percentile(0.5) / 1000.0,
+                timer.percentile(0.9) / 1000.0,
+                timer.percentile(0.99) / 1000.0,
+                timer.max() / 1000.0));
+        }
+
+        if (!histograms.isEmpty()) {
+            appendHeader(report, "value");
+        }
+        for (String name : sortedKeys(histograms)) {
+            Histogram histogram = histograms.get(name);
+            report.append(String.format(
+                Locale.US, "%-28s %7d %8d %8d %8d %8d%n",
+                name, histogram.count(),
+                histogram.percentile(0.5),
+                histogram.percentile(0.9),
+                histogram.percentile(0.99),
+                histogram.max()));
+        }
+
+        report.append(String.format(Locale.US, "%n"));
+        for (String name : sortedKeys(counters)) {
+            report.append(String.format(
+                Locale.US, "%-28s %d%n", name, counters.get(name).get()));
+        }
+        return report.toString();
+    }
+
+    /** Writes {@link #report} to the given file, replacing it. */
+    public void dumpTo(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            writer.write(report());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void appendHeader(StringBuilder report, String title) {
+        report.append(String.format(
+            Locale.US, "%n%-28s %7s %8s %8s %8s %8s%n",
+            title, "count", "p50", "p90", "p99", "max"));
+    }
+
+    private static List<String> sortedKeys(Map<String, ?> map) {
+        List<String> keys = new ArrayList<>(map.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static Histogram get(Map<String, Histogram> map, String name) {
+        Histogram histogram = map.get(name);
+        if (histogram == null) {
+            synchronized (map) {
+                histogram = map.get(name);
+                if (histogram == null) {
+                    histogram = new Histogram();
+                    map.put(name, histogram);
+                }
+            }
+        }
+        return histogram;
+    }
+}
@@ -8,6 +8,17 @@ public final class Constants {
     public static final String COMMAND_LIST_UPDATED_TASKS = "list_updated_tasks";
     public static final String COMMAND_ACTIVATE_TASK = "activate_task";
     public static final String COMMAND_SCALE_TASK = "scale_task";
+    public static final String COMMAND_SUBSCRIBE_TASKS = "subscribe_tasks";
+    public static final String COMMAND_OPEN_SESSION = "open_session";
+    public static final String COMMAND_SYNC_TASKS = "sync_tasks";
+
+    // Request ID carried by frames the service pushes without being asked.
+    public static final int NOTIFICATION_REQUEST_ID = 0;
+
+    // Response statuses
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_CLIENT_ERROR = "client-error";
+    public static final String STATUS_SERVER_ERROR = "server-error";
 
     // Actions
     public static final String ACTION_CONNECT_DEVICE = pkgAction("CONNECT_DEVICE");
@@ -15,10 +26,15 @@ public final class Constants {
     public static final String ACTION_DEVICE_ERROR = pkgAction("DEVICE_ERROR");
     public static final String ACTION_SERVICE_REQUEST = pkgAction("SERVICE_REQUEST");
     public static final String ACTION_SERVICE_RESPONSE = pkgAction("SERVICE_RESPONSE");
+    public static final String ACTION_REQUEST_FAILED = pkgAction("REQUEST_FAILED");
+    public static final String ACTION_TASKS_CHANGED = pkgAction("TASKS_CHANGED");
+    public static final String ACTION_LINK_STATE_CHANGED = pkgAction("LINK_STATE_CHANGED");
 
     // Extras
     public static final String EXTRA_DEVICE = pkgExtra("DEVICE");
     public static final String EXTRA_ERROR_MESSAGE = pkgExtra("ERROR_MESSAGE");
+    public static final String EXTRA_LINK_STATE = pkgExtra("LINK_STATE");
+    public static final String EXTRA_REQUEST_ID = pkgExtra("REQUEST_ID");
     public static final String EXTRA_SERVICE_REQUEST = pkgExtra("SERVICE_REQUEST");
     public static final String EXTRA_SERVICE_RESPONSE = pkgExtra("SERVICE_RESPONSE");
 
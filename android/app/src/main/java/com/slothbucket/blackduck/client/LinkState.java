@@ -0,0 +1,21 @@
+package com.slothbucket.blackduck.client;
+
+/**
+ * State of the link between {@link BlackDuckService} and the host, broadcast with
+ * {@link Constants#ACTION_LINK_STATE_CHANGED} whenever it changes.
+ */
+public enum LinkState {
+    /** No connection has been asked for yet, or the service has stopped. */
+    DISCONNECTED,
+
+    /** Connecting for the first time, retrying until the host is reached. */
+    CONNECTING,
+
+    CONNECTED,
+
+    /**
+     * The connection dropped and is being re-established. Requests fail until it is, after which
+     * the session is resumed without clients having to set it up again.
+     */
+    RECONNECTING
+}
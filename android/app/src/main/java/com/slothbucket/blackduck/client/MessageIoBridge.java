@@ -7,4 +7,10 @@ import java.io.OutputStream;
 interface MessageIoBridge {
     void write(ServiceRequest request, OutputStream outputStream) throws IOException;
     ServiceResponse read(InputStream inputStream) throws IOException;
+
+    /**
+     * Reads the next response, offering its tasks and icons to the sink as they are parsed.
+     */
+    ServiceResponse read(InputStream inputStream, ResponseDecoder.ElementSink sink)
+        throws IOException;
 }
@@ -5,28 +5,201 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.InputStreamBufferInput;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+/**
+ * Sends and receives messages as frames: a 4-byte big-endian body length followed by the body.
+ */
 class MessagePackIoBridge implements MessageIoBridge {
 
+    // Large enough to take in a typical response with a single read from the socket.
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int UNPACKER_BUFFER_SIZE = 8 * 1024;
+
+    private static final int FRAME_HEADER_SIZE = 4;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
     // Disable the default Jackson configuration that closes my sockets!!! >_<;
     private final JsonFactory jsonFactory =
         new MessagePackFactory()
             .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
             .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     private final ObjectMapper mapper = new ObjectMapper(jsonFactory);
+    private final ResponseDecoder decoder = new ResponseDecoder();
+    private final FrameBuffer requestBuffer = new FrameBuffer();
+    private final ClientMetrics metrics = ClientMetrics.global();
+
+    // Buffered reads pull in more than the current frame, so responses pipelined behind it would
+    // be lost if each read started over. Keep the read state alive per input stream.
+    private InputStream responseStream;
+    private FrameInputStream frameInput;
+    private InputStreamBufferInput unpackerInput;
+    private MessageUnpacker unpacker;
 
     @Override
     public void write(ServiceRequest request, OutputStream outputStream) throws IOException {
-        mapper.writerFor(ServiceRequest.class).writeValue(outputStream, request);
+        // Not synchronized on this: the reader thread holds that lock while blocked on the socket.
+        synchronized (requestBuffer) {
+            requestBuffer.startFrame();
+            mapper.writerFor(ServiceRequest.class).writeValue(requestBuffer, request);
+            requestBuffer.writeFrameTo(outputStream);
+            metrics.add(ClientMetrics.BYTES_SENT, requestBuffer.size());
+        }
     }
 
     @Override
     public ServiceResponse read(InputStream inputStream) throws IOException {
-        return mapper.readerFor(ServiceResponse.class).readValue(inputStream);
+        return read(inputStream, null);
+    }
+
+    @Override
+    public synchronized ServiceResponse read(
+            InputStream inputStream, ResponseDecoder.ElementSink sink) throws IOException {
+        if (inputStream != responseStream) {
+            frameInput =
+                new FrameInputStream(new BufferedInputStream(inputStream, READ_BUFFER_SIZE));
+            unpackerInput = new InputStreamBufferInput(frameInput, UNPACKER_BUFFER_SIZE);
+            unpacker = MessagePack.newDefaultUnpacker(unpackerInput);
+            decoder.resetStrings();
+            responseStream = inputStream;
+        }
+
+        if (!frameInput.nextFrame()) {
+            throw new EOFException("Service closed the connection.");
+        }
+        long startNanos = System.nanoTime();
+        // The unpacker only ever sees the current frame, so it still decodes the response as its
+        // bytes arrive, and anything it leaves unread is dropped rather than misread as the next.
+        ServiceResponse response = decoder.decode(unpacker, sink);
+        metrics.recordTime(ClientMetrics.RESPONSE_DECODE, System.nanoTime() - startNanos);
+        metrics.add(ClientMetrics.BYTES_RECEIVED, FRAME_HEADER_SIZE + frameInput.frameLength());
+        frameInput.skipRemaining();
+        unpacker.reset(unpackerInput);
+        return response;
+    }
+
+    /** Collects a message behind room for its frame header, so it is sent with one write. */
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+        FrameBuffer() {
+            super(1024);
+        }
+
+        void startFrame() {
+            reset();
+            count = FRAME_HEADER_SIZE;
+        }
+
+        void writeFrameTo(OutputStream outputStream) throws IOException {
+            int length = count - FRAME_HEADER_SIZE;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            outputStream.write(buf, 0, count);
+            outputStream.flush();
+        }
+    }
+
+    /** Reads one frame's body at a time, reporting the end of the stream at the end of each. */
+    private static final class FrameInputStream extends FilterInputStream {
+        private int frameLength;
+        private int remaining;
+
+        FrameInputStream(InputStream in) {
+            super(in);
+        }
+
+        /** Skips to the next frame's body. Returns false if the stream ends between frames. */
+        boolean nextFrame() throws IOException {
+            skipRemaining();
+            int length = 0;
+            for (int i = 0; i < FRAME_HEADER_SIZE; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    if (i == 0) {
+                        return false;
+                    }
+                    throw new EOFException("Stream ended inside a frame header.");
+                }
+                length = (length << 8) | b;
+            }
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            frameLength = length;
+            remaining = length;
+            return true;
+        }
+
+        int frameLength() {
+            return frameLength;
+        }
+
+        void skipRemaining() throws IOException {
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("Stream ended inside a frame.");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Stream ended inside a frame.");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, Math.min(length, remaining));
+            if (read < 0) {
+                throw new EOFException("Stream ended inside a frame.");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
 }
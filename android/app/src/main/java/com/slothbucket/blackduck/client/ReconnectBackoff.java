@@ -0,0 +1,45 @@
+package com.slothbucket.blackduck.client;
+
+import com.slothbucket.blackduck.common.Preconditions;
+
+import java.util.Random;
+
+/**
+ * Delays between failed attempts to reach the host. They double from a short first delay, so a
+ * brief dropout is recovered from quickly, up to a cap that keeps a host that is gone for good
+ * from draining the battery. Each delay is randomized within its upper half, so the radio is not
+ * woken on a fixed beat.
+ */
+final class ReconnectBackoff {
+
+    static final long MIN_DELAY_MILLIS = 500;
+    static final long MAX_DELAY_MILLIS = 30 * 1000;
+
+    private final Random random;
+    private int failures = 0;
+
+    ReconnectBackoff() {
+        this(new Random());
+    }
+
+    ReconnectBackoff(Random random) {
+        this.random = Preconditions.checkNotNull(random);
+    }
+
+    /** Counts a failed attempt and returns how long to wait before the next one. */
+    synchronized long nextDelayMillis() {
+        // Capped shift, so that a long run of failures cannot overflow.
+        long ceiling = Math.min(MIN_DELAY_MILLIS << Math.min(failures, 16), MAX_DELAY_MILLIS);
+        failures++;
+        return ceiling / 2 + (long) (random.nextDouble() * (ceiling / 2));
+    }
+
+    /** Returns the number of attempts that failed since the last success. */
+    synchronized int failures() {
+        return failures;
+    }
+
+    synchronized void reset() {
+        failures = 0;
+    }
+}
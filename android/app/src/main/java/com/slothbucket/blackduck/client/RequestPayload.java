@@ -1,6 +1,5 @@
 package com.slothbucket.blackduck.client;
 
-import android.app.DownloadManager;
 import android.os.Parcelable;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -27,6 +26,27 @@ public abstract class RequestPayload implements Parcelable {
     @JsonProperty("scale_action")
     public abstract String scaleAction();
 
+    @JsonProperty("icon_codecs")
+    public abstract List<String> iconCodecs();
+
+    /**
+     * Upper bound on the icon bytes per response chunk; any positive value also lets the client
+     * pass on tasks and icons of the response as they arrive. 0 asks for whole responses.
+     */
+    @JsonProperty("max_chunk_bytes")
+    public abstract int maxChunkBytes();
+
+    @JsonProperty("since_sequence")
+    public abstract long sinceSequence();
+
+    /** Whether changed tasks the client already has may be sent as patches. */
+    @JsonProperty("accept_patches")
+    public abstract boolean acceptPatches();
+
+    /** Whether repeated strings may be sent as codes into the connection's string table. */
+    @JsonProperty("string_table")
+    public abstract boolean stringTable();
+
     @AutoValue.Builder
     public abstract static class Builder {
         @JsonProperty("task_id")
@@ -41,10 +61,30 @@ public abstract class RequestPayload implements Parcelable {
         @JsonProperty("scale_action")
         public abstract Builder setScaleAction(String scaleAction);
 
+        @JsonProperty("icon_codecs")
+        public abstract Builder setIconCodecs(List<String> iconCodecs);
+
+        @JsonProperty("max_chunk_bytes")
+        public abstract Builder setMaxChunkBytes(int maxChunkBytes);
+
+        @JsonProperty("since_sequence")
+        public abstract Builder setSinceSequence(long sinceSequence);
+
+        @JsonProperty("accept_patches")
+        public abstract Builder setAcceptPatches(boolean acceptPatches);
+
+        @JsonProperty("string_table")
+        public abstract Builder setStringTable(boolean stringTable);
+
         abstract String taskId();
         abstract List<String> iconIds();
         abstract long lastUpdateTimestamp();
         abstract String scaleAction();
+        abstract List<String> iconCodecs();
+        abstract int maxChunkBytes();
+        abstract long sinceSequence();
+        abstract boolean acceptPatches();
+        abstract boolean stringTable();
         abstract RequestPayload autoBuild();
 
         public RequestPayload build() {
@@ -72,6 +112,36 @@ public abstract class RequestPayload implements Parcelable {
                 setScaleAction("");
             }
 
+            try {
+                iconCodecs();
+            } catch (IllegalStateException expected) {
+                setIconCodecs(new ArrayList<String>());
+            }
+
+            try {
+                maxChunkBytes();
+            } catch (IllegalStateException expected) {
+                setMaxChunkBytes(0);
+            }
+
+            try {
+                sinceSequence();
+            } catch (IllegalStateException expected) {
+                setSinceSequence(0);
+            }
+
+            try {
+                acceptPatches();
+            } catch (IllegalStateException expected) {
+                setAcceptPatches(false);
+            }
+
+            try {
+                stringTable();
+            } catch (IllegalStateException expected) {
+                setStringTable(false);
+            }
+
             return autoBuild();
         }
     }
@@ -0,0 +1,214 @@
+package com.slothbucket.blackduck.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Requests waiting to be written to the service, bounded in depth, and merged where one response
+ * can serve several of them.
+ *
+ * <ul>
+ *   <li>A sync joins a queued or unanswered sync from the same or an earlier sequence, whose
+ *       response covers every change it asks for.
+ *   <li>An icon request joins a queued one for the same icons or more, streamed the same way, or
+ *       an unanswered one if neither is streamed.
+ *   <li>A task activation or scaling replaces a queued one of the same command for the same task;
+ *       only the last gesture matters.
+ * </ul>
+ *
+ * <p>A request that joins or replaces another becomes its follower and receives a copy of its
+ * response. Once {@link #MAX_DEPTH} requests are queued, the oldest queued sync is dropped to make
+ * room, since any later sync catches up on what it would have brought; if there is none, the new
+ * request is refused instead. Every other request is only ever replaced as above, never dropped
+ * for room, so a gesture aimed at one task is not lost to another.
+ */
+final class RequestQueue {
+
+    static final int MAX_DEPTH = 32;
+
+    private final List<ServiceRequest> queued = new ArrayList<>();
+    // Mergeable requests that have been written but not yet answered.
+    private final List<ServiceRequest> sent = new ArrayList<>();
+    private final Map<Integer, List<ServiceRequest>> followers = new HashMap<>();
+
+    /**
+     * Queues a request, or merges it into one already queued or sent. Returns the requests
+     * dropped as a result, which will never be answered.
+     */
+    synchronized List<ServiceRequest> offer(ServiceRequest request) {
+        ServiceRequest leader = findLeader(request);
+        if (leader != null) {
+            followersOf(leader).add(request);
+            return Collections.emptyList();
+        }
+
+        int superseded = findSuperseded(request);
+        if (superseded >= 0) {
+            ServiceRequest previous = queued.set(superseded, request);
+            List<ServiceRequest> requestFollowers = followersOf(request);
+            requestFollowers.add(previous);
+            List<ServiceRequest> previousFollowers = followers.remove(previous.requestId());
+            if (previousFollowers != null) {
+                requestFollowers.addAll(previousFollowers);
+            }
+            return Collections.emptyList();
+        }
+
+        List<ServiceRequest> dropped = Collections.emptyList();
+        if (queued.size() >= MAX_DEPTH) {
+            int victim = findSheddable();
+            if (victim < 0) {
+                return Collections.singletonList(request);
+            }
+            dropped = withFollowers(queued.remove(victim));
+        }
+        queued.add(request);
+        return dropped;
+    }
+
+    /** Takes the next request to write, or returns null if there is none. */
+    synchronized ServiceRequest poll() {
+        if (queued.isEmpty()) {
+            return null;
+        }
+        ServiceRequest request = queued.remove(0);
+        if (isMergeable(request)) {
+            sent.add(request);
+        }
+        return request;
+    }
+
+    /** Returns the requests that share the given request's response. */
+    synchronized List<ServiceRequest> getFollowers(int requestId) {
+        List<ServiceRequest> requestFollowers = followers.get(requestId);
+        return requestFollowers != null
+            ? new ArrayList<>(requestFollowers)
+            : Collections.<ServiceRequest>emptyList();
+    }
+
+    /**
+     * Forgets a request that got its final response or failed. Returns its followers, which are
+     * done along with it.
+     */
+    synchronized List<ServiceRequest> complete(int requestId) {
+        for (int i = 0; i < sent.size(); i++) {
+            if (sent.get(i).requestId() == requestId) {
+                sent.remove(i);
+                break;
+            }
+        }
+        List<ServiceRequest> requestFollowers = followers.remove(requestId);
+        return requestFollowers != null
+            ? requestFollowers
+            : Collections.<ServiceRequest>emptyList();
+    }
+
+    /** Empties the queue. Returns every request still queued, with its followers. */
+    synchronized List<ServiceRequest> clear() {
+        List<ServiceRequest> requests = new ArrayList<>();
+        for (ServiceRequest request : queued) {
+            requests.addAll(withFollowers(request));
+        }
+        queued.clear();
+        return requests;
+    }
+
+    synchronized int size() {
+        return queued.size();
+    }
+
+    // Must hold the lock.
+    private ServiceRequest findLeader(ServiceRequest request) {
+        if (!isMergeable(request)) {
+            return null;
+        }
+        for (ServiceRequest candidate : queued) {
+            if (canServe(candidate, request)) {
+                return candidate;
+            }
+        }
+        // Chunks already passed on would never reach a request joining a streamed response late.
+        if (request.payload().maxChunkBytes() > 0) {
+            return null;
+        }
+        for (ServiceRequest candidate : sent) {
+            if (canServe(candidate, request)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Must hold the lock.
+    private int findSuperseded(ServiceRequest request) {
+        String command = request.command();
+        if (!Constants.COMMAND_ACTIVATE_TASK.equals(command)
+                && !Constants.COMMAND_SCALE_TASK.equals(command)) {
+            return -1;
+        }
+        for (int i = 0; i < queued.size(); i++) {
+            ServiceRequest candidate = queued.get(i);
+            if (command.equals(candidate.command())
+                    && request.payload().taskId().equals(candidate.payload().taskId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Must hold the lock.
+    private int findSheddable() {
+        for (int i = 0; i < queued.size(); i++) {
+            String command = queued.get(i).command();
+            if (Constants.COMMAND_SYNC_TASKS.equals(command)
+                    || Constants.COMMAND_LIST_UPDATED_TASKS.equals(command)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Must hold the lock.
+    private List<ServiceRequest> followersOf(ServiceRequest leader) {
+        List<ServiceRequest> requestFollowers = followers.get(leader.requestId());
+        if (requestFollowers == null) {
+            requestFollowers = new ArrayList<>();
+            followers.put(leader.requestId(), requestFollowers);
+        }
+        return requestFollowers;
+    }
+
+    // Must hold the lock.
+    private List<ServiceRequest> withFollowers(ServiceRequest request) {
+        List<ServiceRequest> requests = new ArrayList<>();
+        requests.add(request);
+        List<ServiceRequest> requestFollowers = followers.remove(request.requestId());
+        if (requestFollowers != null) {
+            requests.addAll(requestFollowers);
+        }
+        return requests;
+    }
+
+    private static boolean isMergeable(ServiceRequest request) {
+        return Constants.COMMAND_SYNC_TASKS.equals(request.command())
+            || Constants.COMMAND_BATCHGET_ICONS.equals(request.command());
+    }
+
+    /** Whether the leader's response carries everything the request asks for. */
+    private static boolean canServe(ServiceRequest leader, ServiceRequest request) {
+        if (!leader.command().equals(request.command())) {
+            return false;
+        }
+        RequestPayload leaderPayload = leader.payload();
+        RequestPayload payload = request.payload();
+        if (Constants.COMMAND_SYNC_TASKS.equals(request.command())) {
+            return leaderPayload.sinceSequence() <= payload.sinceSequence()
+                && leaderPayload.acceptPatches() == payload.acceptPatches();
+        }
+        return leaderPayload.maxChunkBytes() == payload.maxChunkBytes()
+            && leaderPayload.iconIds().containsAll(payload.iconIds());
+    }
+}
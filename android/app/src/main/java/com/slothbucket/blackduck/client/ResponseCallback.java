@@ -0,0 +1,15 @@
+package com.slothbucket.blackduck.client;
+
+/**
+ * Receives the outcome of a call made through {@link BlackDuckClient}.
+ */
+public interface ResponseCallback {
+    /** Called with a response whose status is {@link Constants#STATUS_OK}. */
+    void onSuccess(ServiceResponse response);
+
+    /**
+     * Called when the call could not be completed. The cause is a {@link ServiceException} when the
+     * service answered with an error status.
+     */
+    void onFailure(Throwable cause);
+}
@@ -0,0 +1,358 @@
+package com.slothbucket.blackduck.client;
+
+import com.slothbucket.blackduck.models.Task;
+import com.slothbucket.blackduck.models.TaskIcon;
+import com.slothbucket.blackduck.models.TaskPatch;
+
+import org.msgpack.core.MessageFormat;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes service responses straight off a msgpack stream.
+ *
+ * <p>Field names are matched by comparing their raw bytes, read into a reused buffer, against the
+ * known names, so decoding needs no reflection and allocates little beyond the decoded values.
+ * Tasks and icons are offered to an {@link ElementSink} as soon as each one is parsed. The service
+ * sends a message's scalar fields ahead of its lists, so by then the request ID is known. Unknown
+ * fields are skipped.
+ *
+ * <p>Application names and icon IDs may come as codes into the connection's string table: a
+ * string is sent as {@code [code, string]} the first time and as its code after that. Every task
+ * decoded on a connection therefore shares one instance of each such string.
+ */
+final class ResponseDecoder {
+
+    /** Receives the tasks and icons of a response while it is still being read. */
+    interface ElementSink {
+        /** Returns whether the sink took the task; tasks not taken stay in the response. */
+        boolean onTask(int requestId, Task task);
+
+        /** Returns whether the sink took the icon; icons not taken stay in the response. */
+        boolean onIcon(int requestId, TaskIcon icon);
+    }
+
+    // Stands in for the request ID while it has not been read yet.
+    private static final int UNKNOWN_REQUEST_ID = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] REQUEST_ID = bytes("request_id");
+    private static final byte[] STATUS = bytes("status");
+    private static final byte[] PAYLOAD = bytes("payload");
+    private static final byte[] ERROR = bytes("error");
+    private static final byte[] MORE = bytes("more");
+    private static final byte[] TASKS = bytes("tasks");
+    private static final byte[] PATCHES = bytes("patches");
+    private static final byte[] BASE_SEQUENCE = bytes("base_sequence");
+    private static final byte[] ICONS = bytes("icons");
+    private static final byte[] ICON_CODEC = bytes("icon_codec");
+    private static final byte[] SEQUENCE = bytes("sequence");
+    private static final byte[] RESET = bytes("reset");
+    private static final byte[] TCP_PORT = bytes("tcp_port");
+    private static final byte[] TCP_ADDRESSES = bytes("tcp_addresses");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] APP_NAME = bytes("app_name");
+    private static final byte[] TITLE = bytes("title");
+    private static final byte[] ICON_ID = bytes("icon_id");
+    private static final byte[] IS_OPEN = bytes("is_open");
+    private static final byte[] LAST_UPDATE_TS = bytes("last_update_ts");
+    private static final byte[] WIDTH = bytes("width");
+    private static final byte[] HEIGHT = bytes("height");
+    private static final byte[] CODEC = bytes("codec");
+    private static final byte[] PIXELS = bytes("pixels");
+
+    // Most distinct strings kept for reuse across connections.
+    private static final int MAX_INTERNED_STRINGS = 4096;
+
+    // Strings of the connection's string table, indexed by code.
+    private final List<String> strings = new ArrayList<>();
+    // Every string table entry seen, so that tasks still held from an earlier connection share
+    // their strings with the ones decoded after reconnecting.
+    private final Map<String, String> internedStrings = new HashMap<>();
+
+    private byte[] keyBuffer = new byte[32];
+    private int keyLength;
+
+    /** Forgets the string table, for a new connection. */
+    void resetStrings() {
+        strings.clear();
+    }
+
+    /**
+     * Reads the next response. Elements taken by the sink, which may be null, are left out of it.
+     * Anything that does not decode to a complete response, such as one without a status, is
+     * reported as an {@link IOException}, so the connection fails its pending requests.
+     */
+    ServiceResponse decode(MessageUnpacker unpacker, ElementSink sink) throws IOException {
+        try {
+            return decodeResponse(unpacker, sink);
+        } catch (RuntimeException e) {
+            // Covers MessageTypeException, and the builder refusing missing fields.
+            throw new IOException("Malformed response.", e);
+        }
+    }
+
+    private ServiceResponse decodeResponse(MessageUnpacker unpacker, ElementSink sink)
+            throws IOException {
+        ServiceResponse.Builder builder = new AutoValue_ServiceResponse.Builder();
+        int requestId = UNKNOWN_REQUEST_ID;
+        for (int i = unpacker.unpackMapHeader(); i > 0; i--) {
+            readKey(unpacker);
+            if (keyIs(REQUEST_ID)) {
+                requestId = unpacker.unpackInt();
+            } else if (keyIs(STATUS)) {
+                builder.setStatus(readString(unpacker));
+            } else if (keyIs(PAYLOAD)) {
+                builder.setPayload(decodePayload(unpacker, requestId, sink));
+            } else if (keyIs(ERROR)) {
+                builder.setError(readString(unpacker));
+            } else if (keyIs(MORE)) {
+                builder.setMore(readBoolean(unpacker));
+            } else {
+                unpacker.skipValue();
+            }
+        }
+        return builder.setRequestId(requestId).build();
+    }
+
+    private ResponsePayload decodePayload(
+            MessageUnpacker unpacker, int requestId, ElementSink sink) throws IOException {
+        if (unpacker.getNextFormat() == MessageFormat.NIL) {
+            unpacker.unpackNil();
+            return ResponsePayload.empty();
+        }
+
+        // Elements can only be streamed once the response they belong to is known.
+        if (requestId == UNKNOWN_REQUEST_ID) {
+            sink = null;
+        }
+
+        ResponsePayload.Builder builder = ResponsePayload.builder();
+        for (int i = unpacker.unpackMapHeader(); i > 0; i--) {
+            readKey(unpacker);
+            if (keyIs(TASKS)) {
+                List<Task> tasks = new ArrayList<>();
+                for (int j = unpacker.unpackArrayHeader(); j > 0; j--) {
+                    Task task = decodeTask(unpacker);
+                    if (sink == null || !sink.onTask(requestId, task)) {
+                        tasks.add(task);
+                    }
+                }
+                builder.setTasks(tasks);
+            } else if (keyIs(PATCHES)) {
+                List<TaskPatch> patches = new ArrayList<>();
+                for (int j = unpacker.unpackArrayHeader(); j > 0; j--) {
+                    patches.add(decodePatch(unpacker));
+                }
+                builder.setPatches(patches);
+            } else if (keyIs(BASE_SEQUENCE)) {
+                builder.setBaseSequence(unpacker.unpackLong());
+            } else if (keyIs(ICONS)) {
+                List<TaskIcon> icons = new ArrayList<>();
+                for (int j = unpacker.unpackArrayHeader(); j > 0; j--) {
+                    TaskIcon icon = decodeIcon(unpacker);
+                    if (sink == null || !sink.onIcon(requestId, icon)) {
+                        icons.add(icon);
+                    }
+                }
+                builder.setIcons(icons);
+            } else if (keyIs(ICON_CODEC)) {
+                builder.setIconCodec(readString(unpacker));
+            } else if (keyIs(SEQUENCE)) {
+                builder.setSequence(unpacker.unpackLong());
+            } else if (keyIs(RESET)) {
+                builder.setReset(readBoolean(unpacker));
+            } else if (keyIs(TCP_PORT)) {
+                builder.setTcpPort(unpacker.unpackInt());
+            } else if (keyIs(TCP_ADDRESSES)) {
+                List<String> addresses = new ArrayList<>();
+                for (int j = unpacker.unpackArrayHeader(); j > 0; j--) {
+                    addresses.add(readString(unpacker));
+                }
+                builder.setTcpAddresses(addresses);
+            } else {
+                unpacker.skipValue();
+            }
+        }
+        return builder.build();
+    }
+
+    private Task decodeTask(MessageUnpacker unpacker) throws IOException {
+        String id = "";
+        String appName = "";
+        String title = "";
+        String iconId = "";
+        boolean isOpen = false;
+        long lastUpdateTimestamp = 0;
+        long sequence = 0;
+        for (int i = unpacker.unpackMapHeader(); i > 0; i--) {
+            readKey(unpacker);
+            if (keyIs(ID)) {
+                id = readString(unpacker);
+            } else if (keyIs(APP_NAME)) {
+                appName = readTableString(unpacker);
+            } else if (keyIs(TITLE)) {
+                title = readString(unpacker);
+            } else if (keyIs(ICON_ID)) {
+                iconId = readTableString(unpacker);
+            } else if (keyIs(IS_OPEN)) {
+                isOpen = readBoolean(unpacker);
+            } else if (keyIs(LAST_UPDATE_TS)) {
+                lastUpdateTimestamp = unpacker.unpackLong();
+            } else if (keyIs(SEQUENCE)) {
+                sequence = unpacker.unpackLong();
+            } else {
+                unpacker.skipValue();
+            }
+        }
+
+        return Task.builder()
+            .setId(id)
+            .setApplicationName(appName)
+            .setTitle(title)
+            .setIconId(iconId)
+            .setIsOpen(isOpen)
+            .setLastUpdateTimestamp(lastUpdateTimestamp)
+            .setSequence(sequence)
+            .build();
+    }
+
+    private TaskPatch decodePatch(MessageUnpacker unpacker) throws IOException {
+        TaskPatch.Builder builder = TaskPatch.builder().setId("").setSequence(0);
+        for (int i = unpacker.unpackMapHeader(); i > 0; i--) {
+            readKey(unpacker);
+            if (keyIs(ID)) {
+                builder.setId(readString(unpacker));
+            } else if (keyIs(SEQUENCE)) {
+                builder.setSequence(unpacker.unpackLong());
+            } else if (keyIs(APP_NAME)) {
+                builder.setApplicationName(readTableString(unpacker));
+            } else if (keyIs(TITLE)) {
+                builder.setTitle(readString(unpacker));
+            } else if (keyIs(ICON_ID)) {
+                builder.setIconId(readTableString(unpacker));
+            } else if (keyIs(IS_OPEN)) {
+                builder.setIsOpen(readBoolean(unpacker));
+            } else if (keyIs(LAST_UPDATE_TS)) {
+                builder.setLastUpdateTimestamp(unpacker.unpackLong());
+            } else {
+                unpacker.skipValue();
+            }
+        }
+        return builder.build();
+    }
+
+    private TaskIcon decodeIcon(MessageUnpacker unpacker) throws IOException {
+        String id = "";
+        int width = 0;
+        int height = 0;
+        String codec = "";
+        byte[] pixels = new byte[0];
+        for (int i = unpacker.unpackMapHeader(); i > 0; i--) {
+            readKey(unpacker);
+            if (keyIs(ID)) {
+                id = readString(unpacker);
+            } else if (keyIs(WIDTH)) {
+                width = unpacker.unpackInt();
+            } else if (keyIs(HEIGHT)) {
+                height = unpacker.unpackInt();
+            } else if (keyIs(CODEC)) {
+                codec = readString(unpacker);
+            } else if (keyIs(PIXELS)) {
+                pixels = unpacker.readPayload(unpacker.unpackBinaryHeader());
+            } else {
+                unpacker.skipValue();
+            }
+        }
+
+        return TaskIcon.builder()
+            .setId(id)
+            .setWidth(width)
+            .setHeight(height)
+            .setCodec(codec)
+            .setPixels(pixels)
+            .build();
+    }
+
+    private void readKey(MessageUnpacker unpacker) throws IOException {
+        keyLength = unpacker.unpackRawStringHeader();
+        if (keyLength > keyBuffer.length) {
+            keyBuffer = new byte[Math.max(keyLength, keyBuffer.length * 2)];
+        }
+        unpacker.readPayload(keyBuffer, 0, keyLength);
+    }
+
+    private boolean keyIs(byte[] name) {
+        if (name.length != keyLength) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (keyBuffer[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readTableString(MessageUnpacker unpacker) throws IOException {
+        ValueType type = unpacker.getNextFormat().getValueType();
+        if (type == ValueType.INTEGER) {
+            int code = unpacker.unpackInt();
+            if (code < 0 || code >= strings.size()) {
+                throw new IOException("Unknown string code " + code);
+            }
+            return strings.get(code);
+        } else if (type == ValueType.ARRAY) {
+            if (unpacker.unpackArrayHeader() != 2) {
+                throw new IOException("Malformed string table entry.");
+            }
+            int code = unpacker.unpackInt();
+            if (code != strings.size()) {
+                throw new IOException("Expected string code " + strings.size() + ", got " + code);
+            }
+            String value = intern(readString(unpacker));
+            strings.add(value);
+            return value;
+        }
+        return readString(unpacker);
+    }
+
+    private String intern(String value) {
+        String interned = internedStrings.get(value);
+        if (interned != null) {
+            return interned;
+        }
+        if (internedStrings.size() < MAX_INTERNED_STRINGS) {
+            internedStrings.put(value, value);
+        }
+        return value;
+    }
+
+    private static String readString(MessageUnpacker unpacker) throws IOException {
+        if (unpacker.getNextFormat() == MessageFormat.NIL) {
+            unpacker.unpackNil();
+            return "";
+        }
+        return unpacker.unpackString();
+    }
+
+    private static boolean readBoolean(MessageUnpacker unpacker) throws IOException {
+        if (unpacker.getNextFormat() == MessageFormat.NIL) {
+            unpacker.unpackNil();
+            return false;
+        }
+        return unpacker.unpackBoolean();
+    }
+
+    private static byte[] bytes(String name) {
+        return name.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,136 @@
+package com.slothbucket.blackduck.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pending result of a single call made through {@link BlackDuckClient}.
+ *
+ * <p>Callbacks added before completion run on the thread that completes the future (the main
+ * thread for responses delivered by {@link BlackDuckService}); callbacks added afterwards run
+ * immediately on the caller's thread.
+ */
+public final class ResponseFuture implements Future<ServiceResponse> {
+    private final int requestId;
+    private final Runnable onCancel;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<ResponseCallback> callbacks = new ArrayList<>();
+    private ServiceResponse response;
+    private Throwable failure;
+    private boolean cancelled;
+
+    ResponseFuture(int requestId) {
+        this(requestId, null);
+    }
+
+    /**
+     * @param onCancel run once if the call is cancelled, to forget it; may be null
+     */
+    ResponseFuture(int requestId, Runnable onCancel) {
+        this.requestId = requestId;
+        this.onCancel = onCancel;
+    }
+
+    /** The request ID allocated to this call. */
+    public int requestId() {
+        return requestId;
+    }
+
+    public ResponseFuture addCallback(ResponseCallback callback) {
+        synchronized (this) {
+            if (!isDone()) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        dispatch(callback);
+        return this;
+    }
+
+    boolean set(ServiceResponse response) {
+        return complete(response, null, false);
+    }
+
+    boolean setException(Throwable cause) {
+        return complete(null, cause, false);
+    }
+
+    private boolean complete(ServiceResponse response, Throwable failure, boolean cancelled) {
+        List<ResponseCallback> pendingCallbacks;
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.response = response;
+            this.failure = failure;
+            this.cancelled = cancelled;
+            pendingCallbacks = new ArrayList<>(callbacks);
+            callbacks.clear();
+            done.countDown();
+        }
+
+        for (ResponseCallback callback : pendingCallbacks) {
+            dispatch(callback);
+        }
+        return true;
+    }
+
+    private void dispatch(ResponseCallback callback) {
+        if (failure != null) {
+            callback.onFailure(failure);
+        } else {
+            callback.onSuccess(response);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(null, new CancellationException("Call was cancelled."), true)) {
+            return false;
+        }
+        if (onCancel != null) {
+            onCancel.run();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public ServiceResponse get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    @Override
+    public ServiceResponse get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException(String.format("Request %d timed out.", requestId));
+        }
+        return getResult();
+    }
+
+    private ServiceResponse getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException("Call was cancelled.");
+        } else if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+}
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.auto.value.AutoValue;
 import com.slothbucket.blackduck.models.Task;
 import com.slothbucket.blackduck.models.TaskIcon;
+import com.slothbucket.blackduck.models.TaskPatch;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -18,19 +19,75 @@ public abstract class ResponsePayload implements Parcelable {
     @JsonProperty("tasks")
     public abstract List<Task> tasks();
 
+    /** Changed tasks the client already has, carrying only the fields that changed. */
+    @JsonProperty("patches")
+    public abstract List<TaskPatch> patches();
+
+    /** Change journal sequence the patches are relative to. */
+    @JsonProperty("base_sequence")
+    public abstract long baseSequence();
+
     @JsonProperty("icons")
     public abstract List<TaskIcon> icons();
 
+    /** Icon codec chosen by the service when opening a session. */
+    @JsonProperty("icon_codec")
+    public abstract String iconCodec();
+
+    /** Change journal sequence that the tasks in this payload bring the client up to. */
+    @JsonProperty("sequence")
+    public abstract long sequence();
+
+    /** Whether the tasks are a full listing that replaces, rather than updates, the client's. */
+    @JsonProperty("reset")
+    public abstract boolean reset();
+
+    /** Port the service also listens on for TCP connections when opening a session, or 0. */
+    @JsonProperty("tcp_port")
+    public abstract int tcpPort();
+
+    /** Addresses the service may be reached at on {@link #tcpPort()}. */
+    @JsonProperty("tcp_addresses")
+    public abstract List<String> tcpAddresses();
+
     @AutoValue.Builder
     public abstract static class Builder {
         @JsonProperty("tasks")
         public abstract Builder setTasks(List<Task> tasks);
 
+        @JsonProperty("patches")
+        public abstract Builder setPatches(List<TaskPatch> patches);
+
+        @JsonProperty("base_sequence")
+        public abstract Builder setBaseSequence(long baseSequence);
+
         @JsonProperty("icons")
         public abstract Builder setIcons(List<TaskIcon> icons);
 
+        @JsonProperty("icon_codec")
+        public abstract Builder setIconCodec(String iconCodec);
+
+        @JsonProperty("sequence")
+        public abstract Builder setSequence(long sequence);
+
+        @JsonProperty("reset")
+        public abstract Builder setReset(boolean reset);
+
+        @JsonProperty("tcp_port")
+        public abstract Builder setTcpPort(int tcpPort);
+
+        @JsonProperty("tcp_addresses")
+        public abstract Builder setTcpAddresses(List<String> tcpAddresses);
+
         abstract List<Task> tasks();
+        abstract List<TaskPatch> patches();
+        abstract long baseSequence();
         abstract List<TaskIcon> icons();
+        abstract String iconCodec();
+        abstract long sequence();
+        abstract boolean reset();
+        abstract int tcpPort();
+        abstract List<String> tcpAddresses();
         abstract ResponsePayload autoBuild();
 
         public ResponsePayload build() {
@@ -39,11 +96,46 @@ public abstract class ResponsePayload implements Parcelable {
             } catch (IllegalStateException expected) {
                 setTasks(new ArrayList<Task>());
             }
+            try {
+                patches();
+            } catch (IllegalStateException expected) {
+                setPatches(new ArrayList<TaskPatch>());
+            }
+            try {
+                baseSequence();
+            } catch (IllegalStateException expected) {
+                setBaseSequence(0);
+            }
             try {
                 icons();
             } catch (IllegalStateException expected) {
                 setIcons(new ArrayList<TaskIcon>());
             }
+            try {
+                iconCodec();
+            } catch (IllegalStateException expected) {
+                setIconCodec("");
+            }
+            try {
+                sequence();
+            } catch (IllegalStateException expected) {
+                setSequence(0);
+            }
+            try {
+                reset();
+            } catch (IllegalStateException expected) {
+                setReset(false);
+            }
+            try {
+                tcpPort();
+            } catch (IllegalStateException expected) {
+                setTcpPort(0);
+            }
+            try {
+                tcpAddresses();
+            } catch (IllegalStateException expected) {
+                setTcpAddresses(new ArrayList<String>());
+            }
             return autoBuild();
         }
     }
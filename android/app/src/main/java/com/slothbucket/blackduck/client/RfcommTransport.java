@@ -0,0 +1,67 @@
+package com.slothbucket.blackduck.client;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import com.slothbucket.blackduck.common.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Bluetooth RFCOMM link to the host. Always available once paired, but slow.
+ */
+final class RfcommTransport implements Transport {
+    static final String NAME = "rfcomm";
+
+    private final BluetoothSocket socket;
+
+    private RfcommTransport(BluetoothSocket socket) {
+        this.socket = Preconditions.checkNotNull(socket);
+    }
+
+    static Factory factory(final BluetoothDevice device, final UUID serviceUuid) {
+        Preconditions.checkNotNull(device);
+        Preconditions.checkNotNull(serviceUuid);
+        return new Factory() {
+            @Override
+            public Transport connect() throws IOException {
+                BluetoothSocket socket = device.createRfcommSocketToServiceRecord(serviceUuid);
+                try {
+                    socket.connect();
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+                return new RfcommTransport(socket);
+            }
+
+            @Override
+            public String name() {
+                return NAME + ":" + device.getAddress();
+            }
+        };
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,29 @@
+package com.slothbucket.blackduck.client;
+
+/**
+ * In-process link to {@link BlackDuckService}, obtained by binding to it. Requests and responses
+ * are handed over as they are, without being parcelled into Intents.
+ */
+public interface ServiceChannel {
+
+    /**
+     * Receives what the service has for channel clients. Called on the service's threads, so
+     * implementations must not block.
+     */
+    interface Listener {
+        /** Called for every response to a request sent through the channel, chunks included. */
+        void onServiceResponse(ServiceResponse response);
+
+        void onNotification(ServiceResponse notification);
+
+        void onRequestFailed(int requestId, String reason);
+
+        void onDeviceError(String reason);
+    }
+
+    void sendRequest(ServiceRequest request);
+
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+}
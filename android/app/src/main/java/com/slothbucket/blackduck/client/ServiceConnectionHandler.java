@@ -1,65 +1,318 @@
 package com.slothbucket.blackduck.client;
 
-import android.bluetooth.BluetoothSocket;
 import android.os.Handler;
 import android.os.Looper;
 
 import com.slothbucket.blackduck.common.FluentLog;
 import com.slothbucket.blackduck.common.Preconditions;
+import com.slothbucket.blackduck.models.Task;
+import com.slothbucket.blackduck.models.TaskIcon;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Manages I/O with Bluetooth service.
+ * Manages I/O with the service over one {@link Transport}.
+ *
+ * <p>Requests are written from the handler's looper without waiting for earlier responses, while a
+ * dedicated reader thread consumes responses as they arrive and matches them back to the request
+ * that produced them by request ID. This lets any number of requests be in flight at once and
+ * allows the service to answer them out of order.
+ *
+ * <p>Requests wait in a {@link RequestQueue}, which bounds their number and merges those that
+ * one response can serve; a single task on the looper writes out whatever is queued.
+ *
+ * <p>For requests that accept chunked responses, tasks and icons are passed on in small batches
+ * while their response is still arriving, each batch as an intermediate chunk of the response.
  */
 abstract class ServiceConnectionHandler extends Handler {
 
     private static final FluentLog logger =
         FluentLog.loggerFor("blackduck", ServiceConnectionHandler.class);
 
-    private final BluetoothSocket socket;
+    // Streamed elements are passed on in batches of this many.
+    private static final int STREAM_BATCH_SIZE = 32;
+
+    private final Transport transport;
     private final MessageIoBridge ioBridge;
+    private final Map<Integer, ServiceRequest> pendingRequests = new ConcurrentHashMap<>();
+    // When each pending request was written, for its round trip time.
+    private final Map<Integer, Long> sentNanos = new ConcurrentHashMap<>();
+    private final ClientMetrics metrics = ClientMetrics.global();
+    private final RequestQueue requestQueue = new RequestQueue();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Runnable drainTask =
+        new Runnable() {
+            @Override
+            public void run() {
+                drainScheduled.set(false);
+                ServiceRequest request;
+                while ((request = requestQueue.poll()) != null) {
+                    writeRequest(request);
+                }
+            }
+        };
+    // Runs on the looper, so no request can be between the queue and pendingRequests.
+    private final Runnable closeIfIdleTask =
+        new Runnable() {
+            @Override
+            public void run() {
+                if (!closed && pendingRequests.isEmpty() && requestQueue.size() == 0) {
+                    logger.atInfo().log("Closing retired %s connection.", transport.name());
+                    close();
+                }
+            }
+        };
+    private final Thread readerThread;
+    private volatile boolean closed = false;
+    private volatile boolean retiring = false;
 
-    ServiceConnectionHandler(Looper looper, BluetoothSocket socket, MessageIoBridge ioBridge) {
+    // Only touched by the reader thread.
+    private final List<Task> streamedTasks = new ArrayList<>();
+    private final List<TaskIcon> streamedIcons = new ArrayList<>();
+    private ServiceRequest streamingRequest;
+
+    private final ResponseDecoder.ElementSink elementSink = new ResponseDecoder.ElementSink() {
+        @Override
+        public boolean onTask(int requestId, Task task) {
+            if (!acceptsChunks(requestId)) {
+                return false;
+            }
+            streamedTasks.add(task);
+            flushStreamedElements(STREAM_BATCH_SIZE);
+            return true;
+        }
+
+        @Override
+        public boolean onIcon(int requestId, TaskIcon icon) {
+            if (!acceptsChunks(requestId)) {
+                return false;
+            }
+            streamedIcons.add(icon);
+            flushStreamedElements(STREAM_BATCH_SIZE);
+            return true;
+        }
+    };
+
+    ServiceConnectionHandler(Looper looper, Transport transport, MessageIoBridge ioBridge) {
         super(looper);
-        this.socket = Preconditions.checkNotNull(socket);
+        this.transport = Preconditions.checkNotNull(transport);
         this.ioBridge = Preconditions.checkNotNull(ioBridge);
+
+        readerThread = new Thread(
+            new Runnable() {
+                @Override
+                public void run() {
+                    readResponses();
+                }
+            },
+            "BlackDuckServiceReader");
+        readerThread.start();
     }
 
-    boolean sendRequest(final ServiceRequest request) {
-        return post(new Runnable() {
+    boolean sendRequest(ServiceRequest request) {
+        List<ServiceRequest> dropped = requestQueue.offer(request);
+        metrics.recordValue(ClientMetrics.QUEUE_DEPTH, requestQueue.size());
+        if (!dropped.isEmpty()) {
+            IOException cause = new IOException("Request queue is full.");
+            for (ServiceRequest droppedRequest : dropped) {
+                logger.atWarning().log("Dropped request %d.", droppedRequest.requestId());
+                onRequestFailed(droppedRequest, cause);
+            }
+        }
+        return drainScheduled.getAndSet(true) || post(drainTask);
+    }
 
-            @Override
-            public void run() {
-                int requestId = request.requestId();
-                try {
-                    logger.atDebug().log("Sending request %d: %s", requestId, request);
-                    ioBridge.write(request, socket.getOutputStream());
-                    logger.atDebug().log("Request %d sent successfully.", requestId);
-                } catch (IOException e) {
-                    logger.atError().withCause(e).log("Failed to process request %d", requestId);
+    // Called on the looper.
+    private void writeRequest(ServiceRequest request) {
+        int requestId = request.requestId();
+        // Register before writing so a fast response can never beat its own bookkeeping.
+        if (pendingRequests.put(requestId, request) != null) {
+            logger.atWarning().log("Request %d is already in flight.", requestId);
+        }
+        sentNanos.put(requestId, System.nanoTime());
+
+        try {
+            logger.atDebug().log("Sending request %d: %s", requestId, request);
+            ioBridge.write(request, transport.getOutputStream());
+            logger.atDebug().log("Request %d sent successfully.", requestId);
+        } catch (IOException e) {
+            pendingRequests.remove(requestId);
+            sentNanos.remove(requestId);
+            logger.atError().withCause(e).log("Failed to process request %d", requestId);
+            failRequest(request, e);
+        }
+    }
+
+    private void readResponses() {
+        InputStream inputStream;
+        try {
+            inputStream = transport.getInputStream();
+        } catch (IOException e) {
+            logger.atError().withCause(e).log("Failed to open input stream.");
+            failPendingRequests(e);
+            onConnectionLost(e);
+            return;
+        }
+
+        while (!closed) {
+            ServiceResponse response;
+            try {
+                response = ioBridge.read(inputStream, elementSink);
+            } catch (IOException e) {
+                failPendingRequests(e);
+                if (!closed) {
+                    logger.atError().withCause(e).log("Failed to read response.");
+                    onConnectionLost(e);
                 }
+                return;
+            }
+
+            // Whatever was streamed must arrive ahead of the rest of its response.
+            flushStreamedElements(1);
+            streamingRequest = null;
 
-                try {
-                    ServiceResponse response = ioBridge.read(socket.getInputStream());
-                    logger.atDebug().log(
-                            "Received response for request %d: %s", requestId, response);
-                    onServiceResponse(response);
-                } catch (IOException e) {
-                    logger.atError().withCause(e).log("Failed to process request %d", requestId);
+            int requestId = response.requestId();
+            if (requestId == Constants.NOTIFICATION_REQUEST_ID) {
+                logger.atDebug().log("Received notification: %s", response);
+                onNotification(response);
+                continue;
+            }
+
+            // A streamed response keeps its request pending until the final chunk.
+            ServiceRequest request = response.more()
+                ? pendingRequests.get(requestId)
+                : pendingRequests.remove(requestId);
+            if (request == null) {
+                logger.atWarning().log("Dropping response for unknown request %d", requestId);
+                continue;
+            }
+
+            logger.atDebug().log("Received response for request %d: %s", requestId, response);
+            if (!response.more()) {
+                Long sent = sentNanos.remove(requestId);
+                if (sent != null) {
+                    metrics.recordRoundTrip(request.command(), System.nanoTime() - sent);
                 }
+            }
+            dispatchResponse(request, response);
+            if (retiring) {
+                post(closeIfIdleTask);
+            }
+        }
+    }
+
+    /** Passes a response on for its request and for every request merged into it. */
+    private void dispatchResponse(ServiceRequest request, ServiceResponse response) {
+        onServiceResponse(request, response);
+        List<ServiceRequest> followers = response.more()
+            ? requestQueue.getFollowers(request.requestId())
+            : requestQueue.complete(request.requestId());
+        for (ServiceRequest follower : followers) {
+            onServiceResponse(follower, response.withRequestId(follower.requestId()));
+        }
+    }
+
+    private void failRequest(ServiceRequest request, IOException cause) {
+        onRequestFailed(request, cause);
+        for (ServiceRequest follower : requestQueue.complete(request.requestId())) {
+            onRequestFailed(follower, cause);
+        }
+    }
+
+    private boolean acceptsChunks(int requestId) {
+        if (streamingRequest == null || streamingRequest.requestId() != requestId) {
+            ServiceRequest request = pendingRequests.get(requestId);
+            if (request == null || request.payload().maxChunkBytes() <= 0) {
+                return false;
+            }
+            streamingRequest = request;
+        }
+        return true;
+    }
+
+    private void flushStreamedElements(int minimumCount) {
+        if (streamedTasks.size() + streamedIcons.size() < minimumCount) {
+            return;
+        }
 
+        ResponsePayload payload =
+            ResponsePayload.builder()
+                .setTasks(new ArrayList<>(streamedTasks))
+                .setIcons(new ArrayList<>(streamedIcons))
+                .build();
+        streamedTasks.clear();
+        streamedIcons.clear();
+
+        ServiceResponse chunk =
+            new AutoValue_ServiceResponse.Builder()
+                .setRequestId(streamingRequest.requestId())
+                .setStatus(Constants.STATUS_OK)
+                .setPayload(payload)
+                .setMore(true)
+                .build();
+        dispatchResponse(streamingRequest, chunk);
+    }
+
+    private void failPendingRequests(IOException cause) {
+        for (Integer requestId : pendingRequests.keySet()) {
+            ServiceRequest request = pendingRequests.remove(requestId);
+            sentNanos.remove(requestId);
+            if (request != null) {
+                failRequest(request, cause);
             }
-        });
+        }
+        for (ServiceRequest request : requestQueue.clear()) {
+            onRequestFailed(request, cause);
+        }
+    }
+
+    String getTransportName() {
+        return transport.name();
+    }
+
+    /**
+     * Closes the connection once every request sent on it has been answered. Used when another
+     * connection takes over, so nothing in flight on this one is lost.
+     */
+    void closeWhenIdle() {
+        retiring = true;
+        post(closeIfIdleTask);
     }
 
     void close() {
+        closed = true;
         try {
-            socket.close();
+            transport.close();
         } catch (IOException e) {
-            logger.atWarning().withCause(e).log("Failed to close socket.");
+            logger.atWarning().withCause(e).log("Failed to close transport.");
         }
     }
 
-    abstract void onServiceResponse(ServiceResponse response);
+    /**
+     * Called on the reader thread for every response, along with the request it answers. Streamed
+     * responses produce one call per chunk.
+     */
+    abstract void onServiceResponse(ServiceRequest request, ServiceResponse response);
+
+    /**
+     * Called on the reader thread for every frame the service pushes without being asked.
+     */
+    abstract void onNotification(ServiceResponse notification);
+
+    /**
+     * Called when a request could not be sent, or its response can no longer arrive.
+     */
+    abstract void onRequestFailed(ServiceRequest request, IOException cause);
+
+    /**
+     * Called on the reader thread when the transport fails without having been closed, after
+     * every pending request has been failed.
+     */
+    abstract void onConnectionLost(IOException cause);
 }
@@ -0,0 +1,20 @@
+package com.slothbucket.blackduck.client;
+
+/**
+ * Raised when the service answers a request with an error status.
+ */
+public class ServiceException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final String status;
+
+    public ServiceException(String status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /** One of the {@code Constants.STATUS_*} values. */
+    public String status() {
+        return status;
+    }
+}
@@ -1,7 +1,6 @@
 package com.slothbucket.blackduck.client;
 
 import android.os.Parcelable;
-import android.support.annotation.Nullable;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -22,6 +21,21 @@ public abstract class ServiceResponse implements Parcelable {
     @JsonProperty("error")
     public abstract String error();
 
+    /** True for every chunk of a streamed response except the last. */
+    @JsonProperty("more")
+    public abstract boolean more();
+
+    /** Returns a copy of this response addressed to another request. */
+    ServiceResponse withRequestId(int requestId) {
+        return new AutoValue_ServiceResponse.Builder()
+            .setRequestId(requestId)
+            .setStatus(status())
+            .setPayload(payload())
+            .setError(error())
+            .setMore(more())
+            .build();
+    }
+
     @AutoValue.Builder
     public abstract static class Builder {
         @JsonProperty("request_id")
@@ -36,8 +50,12 @@ public abstract class ServiceResponse implements Parcelable {
         @JsonProperty(value = "error")
         public abstract Builder setError(String error);
 
+        @JsonProperty("more")
+        public abstract Builder setMore(boolean more);
+
         abstract ResponsePayload payload();
         abstract String error();
+        abstract boolean more();
         abstract ServiceResponse autoBuild();
 
         public ServiceResponse build() {
@@ -53,6 +71,12 @@ public abstract class ServiceResponse implements Parcelable {
                 setError("");
             }
 
+            try {
+                more();
+            } catch (IllegalStateException expected) {
+                setMore(false);
+            }
+
             return autoBuild();
         }
     }
@@ -0,0 +1,99 @@
+package com.slothbucket.blackduck.client;
+
+import com.slothbucket.blackduck.common.Preconditions;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules task syncs for clients that poll rather than subscribe.
+ *
+ * <p>Syncs come quickly after the tasks change or the user interacts, then back off exponentially
+ * while nothing happens, so an idle display wakes the radio rarely. Syncing stops while paused,
+ * and resuming syncs at once to catch up.
+ */
+public class SyncScheduler {
+
+    static final long MIN_INTERVAL_MILLIS = 1000;
+    static final long MAX_INTERVAL_MILLIS = 60 * 1000;
+
+    private final ScheduledExecutorService executor;
+    private final Runnable sync;
+    private final Runnable syncTask =
+        new Runnable() {
+            @Override
+            public void run() {
+                runSync();
+            }
+        };
+
+    private boolean enabled = false;
+    private boolean resumed = false;
+    private long intervalMillis = MIN_INTERVAL_MILLIS;
+    private ScheduledFuture<?> pendingSync;
+
+    /**
+     * @param sync starts a sync; run on the executor, so it should not block
+     */
+    public SyncScheduler(ScheduledExecutorService executor, Runnable sync) {
+        this.executor = Preconditions.checkNotNull(executor);
+        this.sync = Preconditions.checkNotNull(sync);
+    }
+
+    /** Turns polling on or off, for example once the service turns out not to push changes. */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        intervalMillis = MIN_INTERVAL_MILLIS;
+        reschedule(intervalMillis);
+    }
+
+    /** Syncs straight away, then carries on polling. */
+    public synchronized void resume() {
+        resumed = true;
+        intervalMillis = MIN_INTERVAL_MILLIS;
+        reschedule(0);
+    }
+
+    public synchronized void pause() {
+        resumed = false;
+        reschedule(0);
+    }
+
+    /** Reports that tasks changed or the user interacted, so more changes are likely soon. */
+    public synchronized void onActivity() {
+        intervalMillis = MIN_INTERVAL_MILLIS;
+        if (pendingSync != null && pendingSync.getDelay(TimeUnit.MILLISECONDS) > intervalMillis) {
+            reschedule(intervalMillis);
+        }
+    }
+
+    // Package-private so that tests can run syncs without waiting for them.
+    void runSync() {
+        synchronized (this) {
+            if (!enabled || !resumed) {
+                return;
+            }
+            long delayMillis = intervalMillis;
+            intervalMillis = Math.min(intervalMillis * 2, MAX_INTERVAL_MILLIS);
+            reschedule(delayMillis);
+        }
+        sync.run();
+    }
+
+    // Must hold the lock.
+    private void reschedule(long delayMillis) {
+        if (pendingSync != null) {
+            pendingSync.cancel(false);
+            pendingSync = null;
+        }
+        if (enabled && resumed) {
+            try {
+                pendingSync = executor.schedule(syncTask, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The executor was shut down, so a late call has nothing left to sync for.
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.slothbucket.blackduck.client;
+
+/**
+ * Receives task changes pushed by the service after {@link BlackDuckClient#subscribeTasks}.
+ */
+public interface TaskUpdateListener {
+    /**
+     * Called on the main thread with tasks that opened, closed or changed on the host, along with
+     * the change journal sequence they bring the client up to.
+     */
+    void onTasksChanged(ResponsePayload changes);
+}
@@ -0,0 +1,28 @@
+package com.slothbucket.blackduck.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte stream to the host, over which {@link MessageIoBridge} exchanges messages.
+ * Implementations must return the same streams on every call.
+ */
+interface Transport {
+
+    /** Opens a new transport to one place the host can be reached. */
+    interface Factory {
+        /** Blocks until connected; must not be called on the main thread. */
+        Transport connect() throws IOException;
+
+        String name();
+    }
+
+    String name();
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    void close() throws IOException;
+}
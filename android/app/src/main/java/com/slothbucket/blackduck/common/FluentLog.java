@@ -3,10 +3,35 @@ package com.slothbucket.blackduck.common;
 import android.util.Log;
 
 public final class FluentLog {
+
+    /**
+     * Destination for log messages. Messages go to {@link Log} unless another sink is installed,
+     * which lets code that logs run off-device.
+     */
+    public interface Sink {
+        void println(int priority, String tag, String message, Throwable cause);
+    }
+
+    private static final Sink ANDROID_SINK = new Sink() {
+        @Override
+        public void println(int priority, String tag, String message, Throwable cause) {
+            if (cause != null) {
+                message = String.format("%s:%n%s", message, Log.getStackTraceString(cause));
+            }
+            Log.println(priority, tag, message);
+        }
+    };
+
+    private static volatile Sink sink = ANDROID_SINK;
+
     private final String tag;
     private final int priority;
     private final Throwable cause;
 
+    public static void setSink(Sink newSink) {
+        sink = Preconditions.checkNotNull(newSink);
+    }
+
     public static FluentLog loggerFor(String tag) {
         return new FluentLog(tag);
     }
@@ -60,10 +85,6 @@ public final class FluentLog {
             message = String.format(message, fmtArgs);
         }
 
-        if (cause != null) {
-            message = String.format("%s:%n%s", message, Log.getStackTraceString(cause));
-        }
-
-        Log.println(priority, tag, message);
+        sink.println(priority, tag, message, cause);
     }
 }
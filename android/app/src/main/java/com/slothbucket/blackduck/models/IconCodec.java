@@ -0,0 +1,136 @@
+package com.slothbucket.blackduck.models;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Encodings the service may send icon pixels in. The codec is negotiated once per session.
+ */
+public enum IconCodec {
+    /** Uncompressed pixels; costs nothing to decode but is the largest on the wire. */
+    RAW("raw") {
+        @Override
+        byte[] decode(byte[] encoded, int decodedLength) throws IOException {
+            if (encoded.length != decodedLength) {
+                throw new IOException(String.format(
+                    "Expected %d raw bytes but got %d", decodedLength, encoded.length));
+            }
+            return encoded;
+        }
+    },
+
+    /** Deflate; smallest on the wire, but the slowest to decode. */
+    ZLIB("zlib") {
+        @Override
+        byte[] decode(byte[] encoded, int decodedLength) throws IOException {
+            byte[] decoded = new byte[decodedLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(encoded);
+                int inflatedLength = inflater.inflate(decoded);
+                if (!inflater.finished()) {
+                    throw new IOException(String.format(
+                        "Zlib data is truncated or longer than %d bytes", decodedLength));
+                }
+                if (inflatedLength != decodedLength) {
+                    throw new IOException(String.format(
+                        "Expected %d decoded bytes but got %d", decodedLength, inflatedLength));
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt zlib data", e);
+            } finally {
+                inflater.end();
+            }
+            return decoded;
+        }
+    },
+
+    /** LZ4 block format without a size header; a good trade-off for slow CPUs. */
+    LZ4("lz4") {
+        @Override
+        byte[] decode(byte[] encoded, int decodedLength) throws IOException {
+            return decodeLz4Block(encoded, decodedLength);
+        }
+    };
+
+    private final String wireName;
+
+    IconCodec(String wireName) {
+        this.wireName = wireName;
+    }
+
+    /** Name of the codec in the protocol. */
+    public String wireName() {
+        return wireName;
+    }
+
+    public static IconCodec forWireName(String wireName) {
+        for (IconCodec codec : values()) {
+            if (codec.wireName.equals(wireName)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown icon codec '%s'", wireName));
+    }
+
+    abstract byte[] decode(byte[] encoded, int decodedLength) throws IOException;
+
+    private static byte[] decodeLz4Block(byte[] src, int decodedLength) throws IOException {
+        byte[] dst = new byte[decodedLength];
+        int srcPos = 0;
+        int dstPos = 0;
+        try {
+            while (srcPos < src.length) {
+                int token = src[srcPos++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[srcPos++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, srcPos, dst, dstPos, literalLength);
+                srcPos += literalLength;
+                dstPos += literalLength;
+
+                // The last sequence carries only literals.
+                if (srcPos >= src.length) {
+                    break;
+                }
+
+                int offset = (src[srcPos] & 0xFF) | ((src[srcPos + 1] & 0xFF) << 8);
+                srcPos += 2;
+                if (offset == 0 || offset > dstPos) {
+                    throw new IOException("Corrupt LZ4 data: bad match offset " + offset);
+                }
+
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[srcPos++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += 4;
+
+                // Matches may overlap their own output, so copy byte by byte.
+                int matchPos = dstPos - offset;
+                for (int i = 0; i < matchLength; i++) {
+                    dst[dstPos++] = dst[matchPos++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 data", e);
+        }
+
+        if (dstPos != decodedLength) {
+            throw new IOException(String.format(
+                "Expected %d decoded bytes but got %d", decodedLength, dstPos));
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,208 @@
+package com.slothbucket.blackduck.models;
+
+import com.slothbucket.blackduck.common.FluentLog;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Disk-backed, content-addressed store of task icons.
+ *
+ * <p>Icon IDs are digests of the icon pixels, so an icon stored once stays valid across sessions
+ * and never needs to cross the link again. Records are appended to a pack file that is read
+ * through a memory mapping; an append-only index maps each icon ID to its record. A crash can at
+ * worst leave a torn entry at the end of either file, which is ignored on the next open.
+ */
+public class IconStore implements Closeable {
+    private static final FluentLog logger = FluentLog.loggerFor("blackduck", IconStore.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String PACK_FILE = "icons.pack";
+    private static final String INDEX_FILE = "icons.idx";
+
+    // The store is never compacted; past this size it is simply cleared and refilled.
+    private static final long MAX_PACK_BYTES = 16 * 1024 * 1024;
+
+    private static final class Entry {
+        final long offset;
+        final int length;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Map<String, Entry> index = new HashMap<>();
+    private final RandomAccessFile pack;
+    private final FileChannel packChannel;
+    private final DataOutputStream indexOutput;
+    private MappedByteBuffer mappedPack;
+
+    public static IconStore open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create icon store directory " + directory);
+        }
+
+        File packFile = new File(directory, PACK_FILE);
+        File indexFile = new File(directory, INDEX_FILE);
+        if (packFile.length() > MAX_PACK_BYTES) {
+            logger.atInfo().log("Icon store exceeded %d bytes; clearing it.", MAX_PACK_BYTES);
+            if (!packFile.delete() || !indexFile.delete()) {
+                throw new IOException("Failed to clear icon store in " + directory);
+            }
+        }
+        return new IconStore(packFile, indexFile);
+    }
+
+    private IconStore(File packFile, File indexFile) throws IOException {
+        pack = new RandomAccessFile(packFile, "rw");
+        packChannel = pack.getChannel();
+        loadIndex(indexFile, packChannel.size());
+        indexOutput =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+    }
+
+    /**
+     * Reads every complete index entry that points inside the pack, then truncates the index
+     * after the last one so new entries are appended on a clean boundary.
+     */
+    private void loadIndex(File indexFile, long packLength) throws IOException {
+        RandomAccessFile indexInput = new RandomAccessFile(indexFile, "rw");
+        try {
+            long validLength = 0;
+            try {
+                while (true) {
+                    String iconId = indexInput.readUTF();
+                    long offset = indexInput.readLong();
+                    int length = indexInput.readInt();
+                    if (offset < 0 || length < 0 || offset + length > packLength) {
+                        break;
+                    }
+                    index.put(iconId, new Entry(offset, length));
+                    validLength = indexInput.getFilePointer();
+                }
+            } catch (EOFException expected) {
+                // End of index, possibly with a torn final entry.
+            }
+            indexInput.setLength(validLength);
+        } finally {
+            indexInput.close();
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized boolean contains(String iconId) {
+        return index.containsKey(iconId);
+    }
+
+    /**
+     * Returns the stored icon, or null if it is not in the store or cannot be read.
+     */
+    public synchronized TaskIcon get(String iconId) {
+        Entry entry = index.get(iconId);
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            return decodeRecord(iconId, readRecord(entry));
+        } catch (IOException | RuntimeException e) {
+            logger.atWarning().withCause(e).log("Dropping unreadable icon %s from store.", iconId);
+            index.remove(iconId);
+            return null;
+        }
+    }
+
+    /**
+     * Adds an icon to the store; icons already present are left alone.
+     */
+    public synchronized void put(TaskIcon icon) throws IOException {
+        if (index.containsKey(icon.id())) {
+            return;
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(encodeRecord(icon));
+        long offset = packChannel.size();
+        while (record.hasRemaining()) {
+            packChannel.write(record, offset + record.position());
+        }
+
+        // The pack record goes first so the index never points at missing data.
+        indexOutput.writeUTF(icon.id());
+        indexOutput.writeLong(offset);
+        indexOutput.writeInt(record.capacity());
+        indexOutput.flush();
+        index.put(icon.id(), new Entry(offset, record.capacity()));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            indexOutput.close();
+        } finally {
+            pack.close();
+        }
+    }
+
+    private ByteBuffer readRecord(Entry entry) throws IOException {
+        long end = entry.offset + entry.length;
+        if (mappedPack == null || end > mappedPack.capacity()) {
+            // Remap to cover records appended since the last mapping.
+            mappedPack = packChannel.map(FileChannel.MapMode.READ_ONLY, 0, packChannel.size());
+        }
+
+        ByteBuffer record = mappedPack.duplicate();
+        record.limit((int) end);
+        record.position((int) entry.offset);
+        return record.slice();
+    }
+
+    private static byte[] encodeRecord(TaskIcon icon) throws IOException {
+        byte[] codec = icon.codec().getBytes(UTF_8);
+        byte[] pixels = icon.pixels();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + codec.length + pixels.length);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(icon.width());
+        output.writeInt(icon.height());
+        output.writeShort(codec.length);
+        output.write(codec);
+        output.writeInt(pixels.length);
+        output.write(pixels);
+        return bytes.toByteArray();
+    }
+
+    private static TaskIcon decodeRecord(String iconId, ByteBuffer record) {
+        int width = record.getInt();
+        int height = record.getInt();
+        byte[] codec = new byte[record.getShort()];
+        record.get(codec);
+        byte[] pixels = new byte[record.getInt()];
+        record.get(pixels);
+
+        return TaskIcon.builder()
+            .setId(iconId)
+            .setWidth(width)
+            .setHeight(height)
+            .setCodec(new String(codec, UTF_8))
+            .setPixels(pixels)
+            .build();
+    }
+}
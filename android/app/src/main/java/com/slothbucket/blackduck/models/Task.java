@@ -36,8 +36,12 @@ public abstract class Task implements Parcelable {
     @JsonProperty("last_update_ts")
     public abstract long lastUpdateTimestamp();
 
+    /** Change journal sequence of the last change to this task. */
+    @JsonProperty("sequence")
+    public abstract long sequence();
+
     public boolean newerThan(Task otherTask) {
-        return lastUpdateTimestamp() > otherTask.lastUpdateTimestamp();
+        return sequence() > otherTask.sequence();
     }
 
     /** Builder for {@link Task}. */
@@ -61,7 +65,20 @@ public abstract class Task implements Parcelable {
         @JsonProperty("last_update_ts")
         public abstract Builder setLastUpdateTimestamp(long timestamp);
 
-        public abstract Task build();
+        @JsonProperty("sequence")
+        public abstract Builder setSequence(long sequence);
+
+        abstract long sequence();
+        abstract Task autoBuild();
+
+        public Task build() {
+            try {
+                sequence();
+            } catch (IllegalStateException expected) {
+                setSequence(0);
+            }
+            return autoBuild();
+        }
     }
 
     public static Builder builder() {
@@ -2,15 +2,13 @@ package com.slothbucket.blackduck.models;
 
 import android.graphics.Bitmap;
 import android.os.Parcelable;
-import android.util.Base64;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.auto.value.AutoValue;
 import com.slothbucket.blackduck.common.FluentLog;
 
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.io.IOException;
 
 /**
  * An icon bitmap displayed for individual tasks.
@@ -32,17 +30,31 @@ public abstract class TaskIcon implements Parcelable {
     @JsonProperty("height")
     public abstract int height();
 
-    /** Encoded pixel data. */
+    /** Wire name of the {@link IconCodec} the pixels are encoded with. */
+    @JsonProperty("codec")
+    public abstract String codec();
+
+    /** Encoded pixel data. Shared rather than copied, so callers must not modify it. */
     @JsonProperty("pixels")
-    public abstract String pixels();
+    @SuppressWarnings("mutable")
+    public abstract byte[] pixels();
 
     /**
-     * Decodes the pixel string into 32-bit integers.
+     * Decodes the pixels with their codec into an ARGB bitmap.
      */
     public Bitmap getPixelsAsBitmap() {
-        // Assume 24-bit RGB and just max out the alpha channel.
-        byte[] bytes = decodePixels();
-        int[] colors = new int[width() * height()];
+        return Bitmap.createBitmap(getPixelsAsArgb(), width(), height(), Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Decodes the pixels into packed ARGB colors, one per pixel.
+     */
+    public int[] getPixelsAsArgb() {
+        return rgbaToArgb(decodePixels(), width() * height());
+    }
+
+    static int[] rgbaToArgb(byte[] bytes, int pixelCount) {
+        int[] colors = new int[pixelCount];
         for (int i = 0; i < bytes.length; i += 4) {
             int color = ((0xFF & bytes[i + 3]) << 24)
                     | ((0xFF & bytes[i]) << 16)
@@ -51,20 +63,17 @@ public abstract class TaskIcon implements Parcelable {
 
             colors[i / 4] = color;
         }
-
-        return Bitmap.createBitmap(colors, width(), height(), Bitmap.Config.ARGB_8888);
+        return colors;
     }
 
-    private byte[] decodePixels() {
-        byte[] data = new byte[width() * height() * 4];
-        Inflater inflater = new Inflater();
-        inflater.setInput(Base64.decode(pixels(), Base64.DEFAULT));
+    byte[] decodePixels() {
+        int length = width() * height() * 4;
         try {
-            inflater.inflate(data);
-        } catch (DataFormatException e) {
+            return IconCodec.forWireName(codec()).decode(pixels(), length);
+        } catch (IOException | IllegalArgumentException e) {
             logger.atError().withCause(e).log("Failed to decode pixels for icon %s", id());
+            return new byte[length];
         }
-        return data;
     }
 
     @AutoValue.Builder
@@ -78,8 +87,11 @@ public abstract class TaskIcon implements Parcelable {
         @JsonProperty("height")
         public abstract Builder setHeight(int height);
 
+        @JsonProperty("codec")
+        public abstract Builder setCodec(String codec);
+
         @JsonProperty("pixels")
-        public abstract Builder setPixels(String pixels);
+        public abstract Builder setPixels(byte[] pixels);
 
         public abstract TaskIcon build();
     }
@@ -0,0 +1,91 @@
+package com.slothbucket.blackduck.models;
+
+import android.os.Parcelable;
+import android.support.annotation.Nullable;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.auto.value.AutoValue;
+
+/**
+ * The fields of a {@link Task} that changed after a given change journal sequence. Fields that
+ * did not change are null.
+ */
+@AutoValue
+@JsonDeserialize(builder = AutoValue_TaskPatch.Builder.class)
+public abstract class TaskPatch implements Parcelable {
+
+    /** Identifier of the patched task. */
+    @JsonProperty("id")
+    public abstract String id();
+
+    /** Change journal sequence of the last change to the task. */
+    @JsonProperty("sequence")
+    public abstract long sequence();
+
+    @Nullable
+    @JsonProperty("app_name")
+    public abstract String applicationName();
+
+    @Nullable
+    @JsonProperty("title")
+    public abstract String title();
+
+    @Nullable
+    @JsonProperty("icon_id")
+    public abstract String iconId();
+
+    @Nullable
+    @JsonProperty("is_open")
+    public abstract Boolean isOpen();
+
+    @Nullable
+    @JsonProperty("last_update_ts")
+    public abstract Long lastUpdateTimestamp();
+
+    /** Returns the given task with this patch's fields replaced. */
+    public Task applyTo(Task task) {
+        return Task.builder()
+            .setId(task.id())
+            .setApplicationName(
+                applicationName() != null ? applicationName() : task.applicationName())
+            .setTitle(title() != null ? title() : task.title())
+            .setIconId(iconId() != null ? iconId() : task.iconId())
+            .setIsOpen(isOpen() != null ? isOpen() : task.isOpen())
+            .setLastUpdateTimestamp(
+                lastUpdateTimestamp() != null ? lastUpdateTimestamp() : task.lastUpdateTimestamp())
+            .setSequence(sequence())
+            .build();
+    }
+
+    /** Builder for {@link TaskPatch}. */
+    @AutoValue.Builder
+    public abstract static class Builder {
+        @JsonProperty("id")
+        public abstract Builder setId(String id);
+
+        @JsonProperty("sequence")
+        public abstract Builder setSequence(long sequence);
+
+        @JsonProperty("app_name")
+        public abstract Builder setApplicationName(String name);
+
+        @JsonProperty("title")
+        public abstract Builder setTitle(String title);
+
+        @JsonProperty("icon_id")
+        public abstract Builder setIconId(String iconId);
+
+        @JsonProperty("is_open")
+        public abstract Builder setIsOpen(Boolean isOpen);
+
+        @JsonProperty("last_update_ts")
+        public abstract Builder setLastUpdateTimestamp(Long timestamp);
+
+        public abstract TaskPatch build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_TaskPatch.Builder();
+    }
+}
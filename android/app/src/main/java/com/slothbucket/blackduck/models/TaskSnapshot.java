@@ -0,0 +1,67 @@
+package com.slothbucket.blackduck.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the open tasks at one point in time, already in display order and with
+ * display labels precomputed, so readers get O(1) indexed access without taking any locks.
+ */
+public final class TaskSnapshot {
+    private static final int MAX_TITLE_LENGTH = 12;
+
+    static final TaskSnapshot EMPTY =
+        new TaskSnapshot(0, Collections.<Task>emptyList(), Collections.<String>emptyList());
+
+    private final long version;
+    private final List<Task> tasks;
+    private final List<String> labels;
+
+    private TaskSnapshot(long version, List<Task> tasks, List<String> labels) {
+        this.version = version;
+        this.tasks = tasks;
+        this.labels = labels;
+    }
+
+    /** Builds a snapshot from tasks that are already sorted in display order. */
+    static TaskSnapshot of(long version, List<Task> sortedTasks) {
+        List<String> labels = new ArrayList<>(sortedTasks.size());
+        for (Task task : sortedTasks) {
+            labels.add(getDisplayLabel(task));
+        }
+        return new TaskSnapshot(
+            version,
+            Collections.unmodifiableList(new ArrayList<>(sortedTasks)),
+            Collections.unmodifiableList(labels));
+    }
+
+    /** Increases by one every time the task state changes. */
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    public Task getTask(int position) {
+        return tasks.get(position);
+    }
+
+    public String getLabel(int position) {
+        return labels.get(position);
+    }
+
+    public List<Task> tasks() {
+        return tasks;
+    }
+
+    private static String getDisplayLabel(Task task) {
+        String title = task.title();
+        if (title.length() > MAX_TITLE_LENGTH) {
+            title = String.format("%s...", title.substring(0, MAX_TITLE_LENGTH));
+        }
+        return String.format("%s - %s", task.applicationName(), title);
+    }
+}
@@ -0,0 +1,87 @@
+package com.slothbucket.blackduck.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary file holding the open tasks and the sync sequence they are up to date with, so that a
+ * later launch can show them before the service is reached.
+ *
+ * <p>The file is written next to its final name, synced, and renamed over it, so a crash leaves
+ * either the old file or the new one. Anything unreadable is reported as an {@link IOException}.
+ */
+final class TaskSnapshotFile {
+    private static final int MAGIC = 0x42445453; // "BDTS"
+    private static final int VERSION = 1;
+
+    private TaskSnapshotFile() {}
+
+    static void write(File file, Collection<Task> tasks, long syncSequence) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOutput = new FileOutputStream(tempFile);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(syncSequence);
+            output.writeInt(tasks.size());
+            for (Task task : tasks) {
+                output.writeUTF(task.id());
+                output.writeUTF(task.applicationName());
+                output.writeUTF(task.title());
+                output.writeUTF(task.iconId());
+                output.writeLong(task.lastUpdateTimestamp());
+                output.writeLong(task.sequence());
+            }
+            // On disk before the rename, which could otherwise outlive the data in a power loss.
+            output.flush();
+            fileOutput.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to replace task snapshot " + file);
+        }
+    }
+
+    /**
+     * Adds the saved tasks, all of them open, to the given list and returns their sync sequence.
+     */
+    static long read(File file, List<Task> tasks) throws IOException {
+        DataInputStream input =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unrecognized task snapshot " + file);
+            }
+            long syncSequence = input.readLong();
+            int count = input.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt task snapshot " + file);
+            }
+            for (int i = 0; i < count; i++) {
+                tasks.add(Task.builder()
+                    .setId(input.readUTF())
+                    .setApplicationName(input.readUTF())
+                    .setTitle(input.readUTF())
+                    .setIconId(input.readUTF())
+                    .setIsOpen(true)
+                    .setLastUpdateTimestamp(input.readLong())
+                    .setSequence(input.readLong())
+                    .build());
+            }
+            return syncSequence;
+        } finally {
+            input.close();
+        }
+    }
+}
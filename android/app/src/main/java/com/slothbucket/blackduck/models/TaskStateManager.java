@@ -1,17 +1,48 @@
 package com.slothbucket.blackduck.models;
 
+import com.slothbucket.blackduck.common.FluentLog;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TaskStateManager {
 
+    /**
+     * Notified on a background thread after every applied update.
+     */
+    public interface Listener {
+        void onStateChanged(TaskSnapshot snapshot);
+    }
+
+    /**
+     * Notified on a background thread when patches had to be dropped, and a sync from the given
+     * sequence is needed to catch up.
+     */
+    public interface SyncListener {
+        void onSyncNeeded(long sequence);
+    }
+
+    /**
+     * Notified on a background thread with the icon IDs that still need to be fetched from the
+     * service.
+     */
+    public interface MissingIconsCallback {
+        void onMissingIcons(List<String> iconIds);
+    }
+
+    private static final FluentLog logger =
+        FluentLog.loggerFor("blackduck", TaskStateManager.class);
+
     private static final Comparator<Task> TASK_BY_APPNAME =
         new Comparator<Task>() {
             @Override
@@ -20,15 +51,47 @@ public class TaskStateManager {
             }
         };
 
-    private final Executor executor = Executors.newFixedThreadPool(2);
+    // Single-threaded so that updates are applied in the order they were submitted.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final Map<String, Task> tasks = new HashMap<>();
     private final Map<String, TaskIcon> taskIcons = new HashMap<>();
-    private final AtomicLong maxTimestamp = new AtomicLong(0);
+    private final AtomicLong syncSequence = new AtomicLong(0);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final IconStore iconStore;
+    private volatile SyncListener syncListener;
+    private volatile TaskSnapshot snapshot = TaskSnapshot.EMPTY;
+
+    public TaskStateManager() {
+        this(null);
+    }
+
+    /**
+     * @param iconStore persistent store consulted before icons are fetched from the service, and
+     *     updated with every icon that is; may be null
+     */
+    public TaskStateManager(IconStore iconStore) {
+        this.iconStore = iconStore;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void setSyncListener(SyncListener listener) {
+        syncListener = listener;
+    }
+
+    /** Returns the latest snapshot of open tasks, sorted by application name. */
+    public TaskSnapshot getSnapshot() {
+        return snapshot;
+    }
 
     public int getTaskCount() {
-        synchronized (tasks) {
-            return tasks.size();
-        }
+        return snapshot.size();
     }
 
     public List<Task> getTasks() {
@@ -40,9 +103,7 @@ public class TaskStateManager {
     }
 
     public List<Task> getTasksSortedByAppName() {
-        List<Task> tasks = getTasks();
-        Collections.sort(tasks, TASK_BY_APPNAME);
-        return tasks;
+        return snapshot.tasks();
     }
 
     public List<TaskIcon> getTaskIcons() {
@@ -53,53 +114,126 @@ public class TaskStateManager {
         return results;
     }
 
+    /**
+     * Returns the icon if it is in memory. Stored icons are loaded in the background for every
+     * task that arrives, before the tasks are published, so this never reads the icon store.
+     */
     public TaskIcon getTaskIconById(String iconId) {
         synchronized (taskIcons) {
             return taskIcons.get(iconId);
         }
     }
 
-    public List<String> getMissingTaskIconIds(Iterable<String> iconIds) {
-        List<String> results = new ArrayList<>();
-        synchronized (taskIcons) {
-            for (String iconId : iconIds) {
-                if (!taskIcons.containsKey(iconId)) {
-                    results.add(iconId);
-                }
-            }
+    /**
+     * Finds the icon IDs that are neither loaded nor in the icon store, once every queued update
+     * has been applied. The store is consulted in the background, since it may be busy writing.
+     */
+    public void getMissingTaskIconIdsAsync(
+            Iterable<String> iconIds, final MissingIconsCallback callback) {
+        final List<String> candidates = new ArrayList<>();
+        for (String iconId : iconIds) {
+            candidates.add(iconId);
         }
-        return results;
+        executor.execute(
+            new Runnable() {
+                @Override
+                public void run() {
+                    List<String> results = new ArrayList<>();
+                    for (String iconId : candidates) {
+                        boolean loaded;
+                        synchronized (taskIcons) {
+                            loaded = taskIcons.containsKey(iconId);
+                        }
+                        if (!loaded && (iconStore == null || !iconStore.contains(iconId))) {
+                            results.add(iconId);
+                        }
+                    }
+                    callback.onMissingIcons(results);
+                }
+            });
+    }
+
+    /**
+     * Returns the change journal sequence that the stored tasks are up to date with, which is
+     * where the next sync should resume from.
+     */
+    public long getSyncSequence() {
+        return syncSequence.get();
     }
 
-    public long getMaxTimestamp() {
-        return maxTimestamp.get();
+    public void updateTasksAsync(Iterable<Task> newTasks) {
+        updateTasksAsync(newTasks, 0);
     }
 
-    public void updateTasksAsync(final Iterable<Task> newTasks) {
+    /**
+     * Applies changed tasks, then advances the sync sequence to the given one if it is newer.
+     */
+    public void updateTasksAsync(Iterable<Task> newTasks, long sequence) {
+        updateTasksAsync(newTasks, Collections.<TaskPatch>emptyList(), 0, sequence);
+    }
+
+    /**
+     * Applies changed tasks and patches, then advances the sync sequence to the given one if it
+     * is newer. Patches only carry the fields changed after {@code baseSequence}; if the stored
+     * tasks are not that far along, the patches are dropped and the sync sequence is left where
+     * it is, so the next sync sends what they would have changed.
+     */
+    public void updateTasksAsync(
+            final Iterable<Task> newTasks,
+            final Iterable<TaskPatch> patches,
+            final long baseSequence,
+            final long sequence) {
         executor.execute(
             new Runnable() {
                 @Override
                 public void run() {
-                    long oldMaxTimestamp = maxTimestamp.get();
-                    long newMaxTimestamp = oldMaxTimestamp;
+                    TaskSnapshot newSnapshot;
+                    boolean complete;
                     synchronized (tasks) {
-                        for (Task task : newTasks) {
-                            String taskId = task.id();
-                            boolean existingTask = tasks.containsKey(taskId);
-                            if (task.isOpen() &&
-                                (!existingTask || task.newerThan(tasks.get(taskId)))) {
-                                tasks.put(taskId, task);
-                            } else if (!task.isOpen() && existingTask) {
-                                tasks.remove(taskId);
-                            }
+                        applyTasks(newTasks);
+                        complete = baseSequence <= syncSequence.get()
+                            ? applyPatches(patches)
+                            : !patches.iterator().hasNext();
+                        newSnapshot = buildSnapshot();
+                    }
 
-                            if (task.lastUpdateTimestamp() > newMaxTimestamp) {
-                                newMaxTimestamp = task.lastUpdateTimestamp();
-                            }
+                    if (complete && sequence > syncSequence.get()) {
+                        syncSequence.set(sequence);
+                    }
+                    loadStoredIcons(newSnapshot.tasks());
+                    publish(newSnapshot);
+
+                    SyncListener listener = syncListener;
+                    if (!complete) {
+                        logger.atInfo().log(
+                            "Dropped task patches against sequence %d; at %d.",
+                            baseSequence, syncSequence.get());
+                        if (listener != null) {
+                            listener.onSyncNeeded(syncSequence.get());
                         }
                     }
+                }
+            });
+    }
+
+    /**
+     * Replaces every stored task with a full listing taken at the given sequence.
+     */
+    public void replaceTasksAsync(final Iterable<Task> allTasks, final long sequence) {
+        executor.execute(
+            new Runnable() {
+                @Override
+                public void run() {
+                    TaskSnapshot newSnapshot;
+                    synchronized (tasks) {
+                        tasks.clear();
+                        applyTasks(allTasks);
+                        newSnapshot = buildSnapshot();
+                    }
 
-                    maxTimestamp.compareAndSet(oldMaxTimestamp, newMaxTimestamp);
+                    syncSequence.set(sequence);
+                    loadStoredIcons(newSnapshot.tasks());
+                    publish(newSnapshot);
                 }
             });
     }
@@ -117,7 +251,186 @@ public class TaskStateManager {
                             }
                         }
                     }
+
+                    if (iconStore != null) {
+                        try {
+                            for (TaskIcon icon : newTaskIcons) {
+                                iconStore.put(icon);
+                            }
+                        } catch (IOException e) {
+                            logger.atWarning().withCause(e).log("Failed to persist icons.");
+                        }
+                    }
+
+                    // Tasks are unchanged, but tiles waiting on these icons need redrawing.
+                    publish(snapshot);
+                }
+            });
+    }
+
+    /**
+     * Saves the stored tasks and sync sequence to the given file once every queued update has
+     * been applied.
+     */
+    public void saveSnapshotAsync(final File file) {
+        executor.execute(
+            new Runnable() {
+                @Override
+                public void run() {
+                    List<Task> savedTasks;
+                    synchronized (tasks) {
+                        savedTasks = new ArrayList<>(tasks.values());
+                    }
+                    try {
+                        TaskSnapshotFile.write(file, savedTasks, syncSequence.get());
+                    } catch (IOException e) {
+                        logger.atWarning().withCause(e).log("Failed to save task snapshot.");
+                    }
+                }
+            });
+    }
+
+    /**
+     * Loads tasks saved by {@link #saveSnapshotAsync} and publishes them, unless tasks have
+     * already been stored. Reads the file on the calling thread, so that the tasks can be shown
+     * as soon as this returns. Returns whether any tasks were restored; the sync sequence then
+     * resumes from where they were saved.
+     */
+    public boolean restoreSnapshot(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        List<Task> savedTasks = new ArrayList<>();
+        long savedSequence;
+        try {
+            savedSequence = TaskSnapshotFile.read(file, savedTasks);
+        } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Discarding unreadable task snapshot.");
+            file.delete();
+            return false;
+        }
+
+        TaskSnapshot newSnapshot;
+        synchronized (tasks) {
+            if (!tasks.isEmpty() || savedTasks.isEmpty()) {
+                return false;
+            }
+            applyTasks(savedTasks);
+            newSnapshot = buildSnapshot();
+            syncSequence.set(savedSequence);
+        }
+        publish(newSnapshot);
+        warmIconsAsync();
+        return true;
+    }
+
+    /**
+     * Loads the stored icons of the current tasks into memory, then republishes the snapshot so
+     * that tiles waiting on them are redrawn.
+     */
+    public void warmIconsAsync() {
+        executor.execute(
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (loadStoredIcons(snapshot.tasks())) {
+                        publish(snapshot);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Releases the icon store once every queued update has been applied.
+     */
+    public void close() {
+        executor.execute(
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (iconStore != null) {
+                        try {
+                            iconStore.close();
+                        } catch (IOException e) {
+                            logger.atWarning().withCause(e).log("Failed to close icon store.");
+                        }
+                    }
                 }
             });
+        executor.shutdown();
+    }
+
+    // Runs on the executor. Returns whether any icon was loaded from the store.
+    private boolean loadStoredIcons(Iterable<Task> loadedTasks) {
+        if (iconStore == null) {
+            return false;
+        }
+        boolean loaded = false;
+        for (Task task : loadedTasks) {
+            String iconId = task.iconId();
+            synchronized (taskIcons) {
+                if (taskIcons.containsKey(iconId)) {
+                    continue;
+                }
+            }
+            // Read outside the lock, so the UI thread is never held up behind the disk.
+            TaskIcon icon = iconStore.get(iconId);
+            if (icon != null) {
+                synchronized (taskIcons) {
+                    if (!taskIcons.containsKey(iconId)) {
+                        taskIcons.put(iconId, icon);
+                    }
+                }
+                loaded = true;
+            }
+        }
+        return loaded;
+    }
+
+    // Must hold the tasks lock.
+    private void applyTasks(Iterable<Task> newTasks) {
+        for (Task task : newTasks) {
+            String taskId = task.id();
+            boolean existingTask = tasks.containsKey(taskId);
+            if (task.isOpen() && (!existingTask || task.newerThan(tasks.get(taskId)))) {
+                tasks.put(taskId, task);
+            } else if (!task.isOpen() && existingTask) {
+                tasks.remove(taskId);
+            }
+        }
+    }
+
+    // Must hold the tasks lock. Returns false if a patch was for a task that is not stored.
+    private boolean applyPatches(Iterable<TaskPatch> patches) {
+        boolean complete = true;
+        for (TaskPatch patch : patches) {
+            Task task = tasks.get(patch.id());
+            if (task == null) {
+                // Closed tasks are dropped, so only a patch closing the task is expected here.
+                complete &= Boolean.FALSE.equals(patch.isOpen());
+            } else if (patch.sequence() > task.sequence()) {
+                Task patched = patch.applyTo(task);
+                if (patched.isOpen()) {
+                    tasks.put(patched.id(), patched);
+                } else {
+                    tasks.remove(patched.id());
+                }
+            }
+        }
+        return complete;
+    }
+
+    // Must hold the tasks lock.
+    private TaskSnapshot buildSnapshot() {
+        List<Task> sortedTasks = new ArrayList<>(tasks.values());
+        Collections.sort(sortedTasks, TASK_BY_APPNAME);
+        return TaskSnapshot.of(snapshot.version() + 1, sortedTasks);
+    }
+
+    private void publish(TaskSnapshot newSnapshot) {
+        snapshot = newSnapshot;
+        for (Listener listener : listeners) {
+            listener.onStateChanged(newSnapshot);
+        }
     }
 }
@@ -0,0 +1,42 @@
+package com.slothbucket.blackduck.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link Histogram}.
+ */
+public class HistogramTest {
+
+    @Test
+    public void bucketOf_anyValue_withinEighthOfUpperBound() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            long upperBound = Histogram.upperBoundOf(Histogram.bucketOf(value));
+            assertTrue(upperBound >= value);
+            assertTrue(upperBound - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentile_uniformValues_reportsBucketsNearRank() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.max());
+        assertEquals(500.5, histogram.mean(), 0.001);
+        assertTrue(histogram.percentile(0.5) >= 500 && histogram.percentile(0.5) <= 500 * 9 / 8);
+        assertTrue(histogram.percentile(0.99) >= 990);
+        assertEquals(1000, histogram.percentile(1));
+    }
+
+    @Test
+    public void percentile_empty_returnsZero() {
+        assertEquals(0, new Histogram().percentile(0.5));
+    }
+}
@@ -0,0 +1,113 @@
+package com.slothbucket.blackduck.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link MessagePackIoBridge}.
+ */
+public class MessagePackIoBridgeTest {
+
+    private final ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+
+    @Test
+    public void read_pipelinedResponses_returnsEachInOrder() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (int requestId : new int[] {7, 3, 5}) {
+            writeFrame(outputStream, mapper.writeValueAsBytes(newResponse(requestId)));
+        }
+
+        MessagePackIoBridge bridge = new MessagePackIoBridge();
+        InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        assertEquals(7, bridge.read(inputStream).requestId());
+        assertEquals(3, bridge.read(inputStream).requestId());
+        assertEquals(5, bridge.read(inputStream).requestId());
+    }
+
+    @Test
+    public void read_streamedChunks_flagsAllButLast() throws Exception {
+        Map<String, Object> chunk = new HashMap<>();
+        chunk.put("request_id", 4);
+        chunk.put("status", "ok");
+        chunk.put("more", true);
+        Map<String, Object> last = new HashMap<>(chunk);
+        last.remove("more");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writeFrame(outputStream, mapper.writeValueAsBytes(chunk));
+        writeFrame(outputStream, mapper.writeValueAsBytes(last));
+
+        MessagePackIoBridge bridge = new MessagePackIoBridge();
+        InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        assertTrue(bridge.read(inputStream).more());
+        assertFalse(bridge.read(inputStream).more());
+    }
+
+    @Test
+    public void read_frameWithUnreadBytes_skipsToNextFrame() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(mapper.writeValueAsBytes(newResponse(1)));
+        body.write(mapper.writeValueAsBytes(newResponse(9)));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writeFrame(outputStream, body.toByteArray());
+        writeFrame(outputStream, mapper.writeValueAsBytes(newResponse(2)));
+
+        MessagePackIoBridge bridge = new MessagePackIoBridge();
+        InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        assertEquals(1, bridge.read(inputStream).requestId());
+        assertEquals(2, bridge.read(inputStream).requestId());
+    }
+
+    @Test
+    public void write_request_prefixesBodyLength() throws Exception {
+        ServiceRequest request =
+            ServiceRequest.builder()
+                .setRequestId(5)
+                .setCommand("list_tasks")
+                .setPayload(RequestPayload.builder().build())
+                .build();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new MessagePackIoBridge().write(request, outputStream);
+
+        DataInputStream inputStream =
+            new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        byte[] body = new byte[inputStream.readInt()];
+        inputStream.readFully(body);
+        assertEquals(-1, inputStream.read());
+        assertEquals(request, mapper.readerFor(ServiceRequest.class).readValue(body));
+    }
+
+    @Test(expected = EOFException.class)
+    public void read_closedStream_throwsEof() throws Exception {
+        new MessagePackIoBridge().read(new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static void writeFrame(ByteArrayOutputStream outputStream, byte[] body)
+            throws Exception {
+        new DataOutputStream(outputStream).writeInt(body.length);
+        outputStream.write(body);
+    }
+
+    private static ServiceResponse newResponse(int requestId) {
+        return new AutoValue_ServiceResponse.Builder()
+            .setRequestId(requestId)
+            .setStatus("ok")
+            .build();
+    }
+}
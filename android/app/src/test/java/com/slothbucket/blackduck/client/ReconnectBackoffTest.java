@@ -0,0 +1,38 @@
+package com.slothbucket.blackduck.client;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ReconnectBackoff}.
+ */
+public class ReconnectBackoffTest {
+
+    @Test
+    public void nextDelayMillis_repeatedFailures_doublesUpToCap() {
+        ReconnectBackoff backoff = new ReconnectBackoff(new Random(1));
+        long ceiling = ReconnectBackoff.MIN_DELAY_MILLIS;
+        for (int i = 0; i < 40; i++) {
+            long delayMillis = backoff.nextDelayMillis();
+            assertTrue(delayMillis >= ceiling / 2 && delayMillis <= ceiling);
+            ceiling = Math.min(ceiling * 2, ReconnectBackoff.MAX_DELAY_MILLIS);
+        }
+        assertEquals(40, backoff.failures());
+    }
+
+    @Test
+    public void reset_afterFailures_startsOverFromMinimum() {
+        ReconnectBackoff backoff = new ReconnectBackoff(new Random(1));
+        for (int i = 0; i < 5; i++) {
+            backoff.nextDelayMillis();
+        }
+        backoff.reset();
+
+        assertEquals(0, backoff.failures());
+        assertTrue(backoff.nextDelayMillis() <= ReconnectBackoff.MIN_DELAY_MILLIS);
+    }
+}
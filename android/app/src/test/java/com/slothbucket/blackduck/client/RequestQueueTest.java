@@ -0,0 +1,111 @@
+package com.slothbucket.blackduck.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link RequestQueue}.
+ */
+public class RequestQueueTest {
+
+    private final RequestQueue requestQueue = new RequestQueue();
+
+    @Test
+    public void offer_syncBehindUnansweredSync_joinsIt() {
+        requestQueue.offer(newSync(1, 100));
+        assertEquals(1, requestQueue.poll().requestId());
+
+        assertTrue(requestQueue.offer(newSync(2, 120)).isEmpty());
+        assertTrue(requestQueue.offer(newSync(3, 50)).isEmpty());
+
+        assertEquals(3, requestQueue.poll().requestId());
+        assertNull(requestQueue.poll());
+        assertEquals(Collections.singletonList(newSync(2, 120)), requestQueue.complete(1));
+    }
+
+    @Test
+    public void offer_scaleForQueuedTask_replacesIt() {
+        requestQueue.offer(newScale(1, "42", "maximize"));
+        requestQueue.offer(newScale(2, "7", "maximize"));
+        requestQueue.offer(newScale(3, "42", "unmaximize"));
+
+        assertEquals(2, requestQueue.size());
+        ServiceRequest first = requestQueue.poll();
+        assertEquals(3, first.requestId());
+        assertEquals(Collections.singletonList(newScale(1, "42", "maximize")),
+            requestQueue.complete(first.requestId()));
+    }
+
+    @Test
+    public void offer_fullQueue_dropsOldestSheddableOrRefuses() {
+        requestQueue.offer(newIcons(1, "a"));
+        requestQueue.offer(newSync(2, 100));
+        for (int i = 2; i < RequestQueue.MAX_DEPTH; i++) {
+            requestQueue.offer(newIcons(i + 1, "icon-" + i));
+        }
+
+        List<ServiceRequest> dropped = requestQueue.offer(newIcons(100, "b"));
+        assertEquals(Collections.singletonList(newSync(2, 100)), dropped);
+
+        dropped = requestQueue.offer(newIcons(101, "c"));
+        assertEquals(Collections.singletonList(newIcons(101, "c")), dropped);
+        assertEquals(RequestQueue.MAX_DEPTH, requestQueue.size());
+    }
+
+    @Test
+    public void offer_fullQueueOfActivationsForOtherTasks_keepsThem() {
+        for (int i = 0; i < RequestQueue.MAX_DEPTH; i++) {
+            requestQueue.offer(newActivate(i + 1, String.valueOf(i)));
+        }
+
+        List<ServiceRequest> dropped = requestQueue.offer(newActivate(100, "new"));
+
+        assertEquals(Collections.singletonList(newActivate(100, "new")), dropped);
+        assertEquals(1, requestQueue.poll().requestId());
+        assertEquals(RequestQueue.MAX_DEPTH - 1, requestQueue.size());
+    }
+
+    private static ServiceRequest newSync(int requestId, long sinceSequence) {
+        return newRequest(
+            requestId,
+            Constants.COMMAND_SYNC_TASKS,
+            RequestPayload.builder().setSinceSequence(sinceSequence).build());
+    }
+
+    private static ServiceRequest newScale(int requestId, String taskId, String scaleAction) {
+        return newRequest(
+            requestId,
+            Constants.COMMAND_SCALE_TASK,
+            RequestPayload.builder().setTaskId(taskId).setScaleAction(scaleAction).build());
+    }
+
+    private static ServiceRequest newActivate(int requestId, String taskId) {
+        return newRequest(
+            requestId,
+            Constants.COMMAND_ACTIVATE_TASK,
+            RequestPayload.builder().setTaskId(taskId).build());
+    }
+
+    private static ServiceRequest newIcons(int requestId, String iconId) {
+        return newRequest(
+            requestId,
+            Constants.COMMAND_BATCHGET_ICONS,
+            RequestPayload.builder().setIconIds(Arrays.asList(iconId)).build());
+    }
+
+    private static ServiceRequest newRequest(
+            int requestId, String command, RequestPayload payload) {
+        return ServiceRequest.builder()
+            .setRequestId(requestId)
+            .setCommand(command)
+            .setPayload(payload)
+            .build();
+    }
+}
@@ -0,0 +1,125 @@
+package com.slothbucket.blackduck.client;
+
+import com.slothbucket.blackduck.models.Task;
+import com.slothbucket.blackduck.models.TaskIcon;
+
+import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ResponseDecoder}.
+ */
+public class ResponseDecoderTest {
+
+    private final List<Task> streamedTasks = new ArrayList<>();
+    private final ResponseDecoder.ElementSink sink = new ResponseDecoder.ElementSink() {
+        @Override
+        public boolean onTask(int requestId, Task task) {
+            assertEquals(7, requestId);
+            return streamedTasks.add(task);
+        }
+
+        @Override
+        public boolean onIcon(int requestId, TaskIcon icon) {
+            return false;
+        }
+    };
+
+    @Test
+    public void decode_requestIdFirst_streamsTasksToSink() throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(3);
+        packer.packString("request_id").packInt(7);
+        packer.packString("status").packString("ok");
+        packer.packString("payload").packMapHeader(2);
+        packer.packString("sequence").packLong(1480000000000000L);
+        packer.packString("tasks").packArrayHeader(2);
+        packTask(packer, "1", "Terminal");
+        packTask(packer, "2", "Firefox");
+
+        ServiceResponse response = decode(packer);
+
+        assertEquals(7, response.requestId());
+        assertEquals("ok", response.status());
+        assertEquals(1480000000000000L, response.payload().sequence());
+        assertTrue(response.payload().tasks().isEmpty());
+        assertEquals(2, streamedTasks.size());
+        assertEquals("Firefox", streamedTasks.get(1).applicationName());
+        assertEquals(9, streamedTasks.get(1).sequence());
+    }
+
+    @Test
+    public void decode_payloadBeforeRequestId_keepsTasksInResponse() throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(4);
+        packer.packString("payload").packMapHeader(1);
+        packer.packString("tasks").packArrayHeader(1);
+        packTask(packer, "1", "Terminal");
+        packer.packString("unknown").packArrayHeader(1).packNil();
+        packer.packString("request_id").packInt(7);
+        packer.packString("status").packString("ok");
+
+        ServiceResponse response = decode(packer);
+
+        assertEquals(7, response.requestId());
+        assertEquals(1, response.payload().tasks().size());
+        assertTrue(streamedTasks.isEmpty());
+    }
+
+    @Test
+    public void decode_stringTableCodes_resolveToSharedStrings() throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(2);
+        packer.packString("status").packString("ok");
+        packer.packString("payload").packMapHeader(1);
+        packer.packString("tasks").packArrayHeader(2);
+        packer.packMapHeader(2);
+        packer.packString("id").packString("1");
+        packer.packString("app_name").packArrayHeader(2).packInt(0).packString("Terminal");
+        packer.packMapHeader(2);
+        packer.packString("id").packString("2");
+        packer.packString("app_name").packInt(0);
+
+        List<Task> tasks = new ResponseDecoder()
+            .decode(MessagePack.newDefaultUnpacker(packer.toByteArray()), null)
+            .payload()
+            .tasks();
+
+        assertEquals("Terminal", tasks.get(1).applicationName());
+        assertSame(tasks.get(0).applicationName(), tasks.get(1).applicationName());
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_missingStatus_throwsIOException() throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        packer.packMapHeader(1);
+        packer.packString("request_id").packInt(1);
+
+        decode(packer);
+    }
+
+    private ServiceResponse decode(MessageBufferPacker packer) throws IOException {
+        return new ResponseDecoder().decode(
+            MessagePack.newDefaultUnpacker(packer.toByteArray()), sink);
+    }
+
+    private static void packTask(MessageBufferPacker packer, String id, String appName)
+            throws IOException {
+        packer.packMapHeader(6);
+        packer.packString("id").packString(id);
+        packer.packString("app_name").packString(appName);
+        packer.packString("title").packString("Untitled");
+        packer.packString("icon_id").packString("icon-" + id);
+        packer.packString("is_open").packBoolean(true);
+        packer.packString("sequence").packLong(9);
+    }
+}
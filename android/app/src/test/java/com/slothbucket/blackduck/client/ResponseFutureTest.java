@@ -0,0 +1,91 @@
+package com.slothbucket.blackduck.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link ResponseFuture}.
+ */
+public class ResponseFutureTest {
+
+    private static class RecordingCallback implements ResponseCallback {
+        final List<Object> results = new ArrayList<>();
+
+        @Override
+        public void onSuccess(ServiceResponse response) {
+            results.add(response);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            results.add(cause);
+        }
+    }
+
+    @Test
+    public void set_runsCallbacksAddedBeforeAndAfterCompletion() throws Exception {
+        ResponseFuture future = new ResponseFuture(42);
+        RecordingCallback before = new RecordingCallback();
+        RecordingCallback after = new RecordingCallback();
+        ServiceResponse response = newResponse(42);
+
+        future.addCallback(before);
+        assertTrue(future.set(response));
+        future.addCallback(after);
+
+        assertEquals(1, before.results.size());
+        assertSame(response, before.results.get(0));
+        assertSame(response, after.results.get(0));
+        assertSame(response, future.get());
+    }
+
+    @Test
+    public void setException_completesOnlyOnce() throws Exception {
+        ResponseFuture future = new ResponseFuture(1);
+        ServiceException cause = new ServiceException(Constants.STATUS_SERVER_ERROR, "boom");
+
+        assertTrue(future.setException(cause));
+        assertFalse(future.set(newResponse(1)));
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+            return;
+        }
+        throw new AssertionError("Expected ExecutionException.");
+    }
+
+    @Test
+    public void cancel_runsCancelHookOnce() {
+        final List<Integer> cancelled = new ArrayList<>();
+        ResponseFuture future = new ResponseFuture(7, new Runnable() {
+            @Override
+            public void run() {
+                cancelled.add(7);
+            }
+        });
+
+        assertTrue(future.cancel(false));
+        assertFalse(future.cancel(false));
+        assertFalse(future.set(newResponse(7)));
+
+        assertEquals(1, cancelled.size());
+        assertTrue(future.isCancelled());
+    }
+
+    private static ServiceResponse newResponse(int requestId) {
+        return new AutoValue_ServiceResponse.Builder()
+            .setRequestId(requestId)
+            .setStatus(Constants.STATUS_OK)
+            .build();
+    }
+}
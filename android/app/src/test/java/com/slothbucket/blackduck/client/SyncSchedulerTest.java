@@ -0,0 +1,104 @@
+package com.slothbucket.blackduck.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link SyncScheduler}.
+ */
+public class SyncSchedulerTest {
+
+    private final RecordingExecutor executor = new RecordingExecutor();
+    private final AtomicInteger syncs = new AtomicInteger();
+    private final SyncScheduler syncScheduler = new SyncScheduler(executor, new Runnable() {
+        @Override
+        public void run() {
+            syncs.incrementAndGet();
+        }
+    });
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void runSync_idle_backsOffExponentially() {
+        syncScheduler.setEnabled(true);
+        syncScheduler.resume();
+        for (int i = 0; i < 8; i++) {
+            syncScheduler.runSync();
+        }
+
+        assertEquals(8, syncs.get());
+        assertEquals(
+            Arrays.asList(0L, 1000L, 2000L, 4000L, 8000L, 16000L, 32000L, 60000L, 60000L),
+            executor.delays);
+    }
+
+    @Test
+    public void onActivity_afterBackoff_syncsSoon() {
+        syncScheduler.setEnabled(true);
+        syncScheduler.resume();
+        for (int i = 0; i < 5; i++) {
+            syncScheduler.runSync();
+        }
+        syncScheduler.onActivity();
+
+        assertEquals(SyncScheduler.MIN_INTERVAL_MILLIS, (long) executor.lastDelay());
+    }
+
+    @Test
+    public void pause_cancelsPendingSync() {
+        syncScheduler.setEnabled(true);
+        syncScheduler.resume();
+        ScheduledFuture<?> pending = executor.futures.get(executor.futures.size() - 1);
+        syncScheduler.pause();
+        syncScheduler.runSync();
+
+        assertTrue(pending.isCancelled());
+        assertEquals(0, syncs.get());
+    }
+
+    @Test
+    public void setEnabled_afterShutdown_doesNotSchedule() {
+        syncScheduler.resume();
+        executor.shutdown();
+        syncScheduler.setEnabled(true);
+
+        assertTrue(executor.futures.isEmpty());
+    }
+
+    /** Records the delay of every scheduled task, which it then never runs. */
+    private static class RecordingExecutor extends ScheduledThreadPoolExecutor {
+        final List<Long> delays = new ArrayList<>();
+        final List<ScheduledFuture<?>> futures = new ArrayList<>();
+
+        RecordingExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            ScheduledFuture<?> future = super.schedule(command, 1, TimeUnit.DAYS);
+            futures.add(future);
+            return future;
+        }
+
+        Long lastDelay() {
+            return delays.get(delays.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.slothbucket.blackduck.models;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test for {@link IconCodec}.
+ */
+public class IconCodecTest {
+
+    @Test
+    public void forWireName_returnsMatchingCodec() {
+        for (IconCodec codec : IconCodec.values()) {
+            assertEquals(codec, IconCodec.forWireName(codec.wireName()));
+        }
+    }
+
+    @Test
+    public void zlib_decode_roundTripSucceeds() throws Exception {
+        byte[] pixels = new byte[64 * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) (i % 7);
+        }
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(pixels);
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        byte[] encoded = Arrays.copyOf(buffer, deflater.deflate(buffer));
+
+        assertArrayEquals(pixels, IconCodec.ZLIB.decode(encoded, pixels.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void zlib_decode_shortOutput_throwsIOException() throws Exception {
+        Deflater deflater = new Deflater();
+        deflater.setInput(new byte[16]);
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        byte[] encoded = Arrays.copyOf(buffer, deflater.deflate(buffer));
+
+        IconCodec.ZLIB.decode(encoded, 64);
+    }
+
+    @Test
+    public void lz4_decode_expandsOverlappingMatch() throws Exception {
+        byte[] encoded = {
+            0x35, 'a', 'b', 'c', 0x03, 0x00,  // "abc", then copy 9 bytes from 3 back
+            0x30, 'x', 'y', 'z',              // trailing literals
+        };
+
+        assertArrayEquals(
+            "abcabcabcabcxyz".getBytes(StandardCharsets.US_ASCII),
+            IconCodec.LZ4.decode(encoded, 15));
+    }
+
+    @Test
+    public void lz4_decode_handlesExtendedLiteralLength() throws Exception {
+        byte[] literals = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = new byte[2 + literals.length];
+        encoded[0] = (byte) 0xF0;
+        encoded[1] = (byte) (literals.length - 15);
+        System.arraycopy(literals, 0, encoded, 2, literals.length);
+
+        assertArrayEquals(literals, IconCodec.LZ4.decode(encoded, literals.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void lz4_decode_rejectsOffsetBeforeStart() throws Exception {
+        IconCodec.LZ4.decode(new byte[] {0x10, 'a', 0x05, 0x00}, 5);
+    }
+}
@@ -0,0 +1,70 @@
+package com.slothbucket.blackduck.models;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link IconStore}.
+ */
+public class IconStoreTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void get_afterReopen_returnsStoredIcon() throws IOException {
+        TaskIcon icon = newIcon("abc", new byte[] {1, 2, 3, 4});
+        IconStore store = IconStore.open(folder.getRoot());
+        store.put(icon);
+        assertEquals(icon, store.get("abc"));
+        store.close();
+
+        store = IconStore.open(folder.getRoot());
+        assertTrue(store.contains("abc"));
+        assertEquals(icon, store.get("abc"));
+        assertNull(store.get("missing"));
+        store.close();
+    }
+
+    @Test
+    public void open_withTornIndexEntry_keepsCompleteEntries() throws IOException {
+        IconStore store = IconStore.open(folder.getRoot());
+        store.put(newIcon("first", new byte[] {1}));
+        store.close();
+
+        FileOutputStream index = new FileOutputStream(new File(folder.getRoot(), "icons.idx"), true);
+        index.write(new byte[] {0, 6, 's', 'e'});
+        index.close();
+
+        store = IconStore.open(folder.getRoot());
+        assertEquals(1, store.size());
+        TaskIcon second = newIcon("second", new byte[] {2, 2});
+        store.put(second);
+        store.close();
+
+        store = IconStore.open(folder.getRoot());
+        assertEquals(2, store.size());
+        assertEquals(second, store.get("second"));
+        assertFalse(store.contains("se"));
+        store.close();
+    }
+
+    private static TaskIcon newIcon(String id, byte[] pixels) {
+        return TaskIcon.builder()
+            .setId(id)
+            .setWidth(1)
+            .setHeight(pixels.length)
+            .setCodec(IconCodec.RAW.wireName())
+            .setPixels(pixels)
+            .build();
+    }
+}
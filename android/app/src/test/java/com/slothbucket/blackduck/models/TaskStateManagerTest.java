@@ -0,0 +1,241 @@
+package com.slothbucket.blackduck.models;
+
+import com.slothbucket.blackduck.common.FluentLog;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link TaskStateManager}.
+ */
+public class TaskStateManagerTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TaskStateManager taskStateManager = new TaskStateManager();
+    private final BlockingQueue<TaskSnapshot> snapshots = new ArrayBlockingQueue<>(16);
+
+    @BeforeClass
+    public static void silenceLogs() {
+        FluentLog.setSink(new FluentLog.Sink() {
+            @Override
+            public void println(int priority, String tag, String message, Throwable cause) {}
+        });
+    }
+
+    {
+        taskStateManager.addListener(new TaskStateManager.Listener() {
+            @Override
+            public void onStateChanged(TaskSnapshot snapshot) {
+                snapshots.add(snapshot);
+            }
+        });
+    }
+
+    @Test
+    public void updateTasksAsync_publishesSortedVersionedSnapshot() throws Exception {
+        taskStateManager.updateTasksAsync(Arrays.asList(
+            newTask("1", "Terminal", "bash", true, 10),
+            newTask("2", "Firefox", "A very long page title", true, 10)));
+        TaskSnapshot snapshot = nextSnapshot();
+
+        assertEquals(1, snapshot.version());
+        assertEquals(2, snapshot.size());
+        assertEquals("2", snapshot.getTask(0).id());
+        assertEquals("Firefox - A very long ...", snapshot.getLabel(0));
+        assertEquals("Terminal - bash", snapshot.getLabel(1));
+
+        taskStateManager.updateTasksAsync(Arrays.asList(newTask("2", "Firefox", "", false, 11)));
+        snapshot = nextSnapshot();
+
+        assertEquals(2, snapshot.version());
+        assertEquals(1, snapshot.size());
+        assertEquals("1", snapshot.getTask(0).id());
+        assertEquals(snapshot, taskStateManager.getSnapshot());
+    }
+
+    @Test
+    public void updateTasksAsync_sameSecondChanges_appliedBySequence() throws Exception {
+        taskStateManager.updateTasksAsync(
+            Arrays.asList(newTask("1", "Terminal", "bash", true, 10)), 10);
+        nextSnapshot();
+        taskStateManager.updateTasksAsync(
+            Arrays.asList(newTask("1", "Terminal", "vim", true, 11)), 11);
+        TaskSnapshot snapshot = nextSnapshot();
+
+        assertEquals("Terminal - vim", snapshot.getLabel(0));
+        assertEquals(11, taskStateManager.getSyncSequence());
+
+        // A stale response neither reverts the task nor rewinds the cursor.
+        taskStateManager.updateTasksAsync(
+            Arrays.asList(newTask("1", "Terminal", "bash", true, 10)), 10);
+        snapshot = nextSnapshot();
+
+        assertEquals("Terminal - vim", snapshot.getLabel(0));
+        assertEquals(11, taskStateManager.getSyncSequence());
+    }
+
+    @Test
+    public void replaceTasksAsync_dropsTasksMissingFromListing() throws Exception {
+        taskStateManager.updateTasksAsync(Arrays.asList(
+            newTask("1", "Terminal", "bash", true, 10),
+            newTask("2", "Firefox", "", true, 11)), 11);
+        nextSnapshot();
+        taskStateManager.replaceTasksAsync(
+            Arrays.asList(newTask("2", "Firefox", "", true, 5)), 5);
+        TaskSnapshot snapshot = nextSnapshot();
+
+        assertEquals(1, snapshot.size());
+        assertEquals("2", snapshot.getTask(0).id());
+        assertEquals(5, taskStateManager.getSyncSequence());
+    }
+
+    @Test
+    public void updateTasksAsync_patches_replaceOnlyPatchedFields() throws Exception {
+        taskStateManager.replaceTasksAsync(Arrays.asList(
+            newTask("1", "Terminal", "bash", true, 10),
+            newTask("2", "Firefox", "", true, 11)), 11);
+        nextSnapshot();
+        taskStateManager.updateTasksAsync(
+            Arrays.<Task>asList(),
+            Arrays.asList(
+                TaskPatch.builder().setId("1").setSequence(12).setTitle("vim").build(),
+                TaskPatch.builder().setId("2").setSequence(13).setIsOpen(false).build()),
+            11,
+            13);
+        TaskSnapshot snapshot = nextSnapshot();
+
+        assertEquals(1, snapshot.size());
+        assertEquals(newTask("1", "Terminal", "vim", true, 12), snapshot.getTask(0));
+        assertEquals(13, taskStateManager.getSyncSequence());
+    }
+
+    @Test
+    public void updateTasksAsync_patchesPastSyncSequence_droppedAndSyncRequested()
+            throws Exception {
+        final BlockingQueue<Long> syncs = new ArrayBlockingQueue<>(1);
+        taskStateManager.setSyncListener(new TaskStateManager.SyncListener() {
+            @Override
+            public void onSyncNeeded(long sequence) {
+                syncs.add(sequence);
+            }
+        });
+        taskStateManager.replaceTasksAsync(
+            Arrays.asList(newTask("1", "Terminal", "bash", true, 10)), 10);
+        nextSnapshot();
+        taskStateManager.updateTasksAsync(
+            Arrays.<Task>asList(),
+            Arrays.asList(TaskPatch.builder().setId("1").setSequence(14).setTitle("vim").build()),
+            12,
+            14);
+
+        assertEquals("bash", nextSnapshot().getTask(0).title());
+        assertEquals(Long.valueOf(10), syncs.poll(5, TimeUnit.SECONDS));
+        assertEquals(10, taskStateManager.getSyncSequence());
+    }
+
+    @Test
+    public void restoreSnapshot_savedTasks_restoredWithSyncSequence() throws Exception {
+        File file = new File(folder.getRoot(), "tasks.snapshot");
+        taskStateManager.replaceTasksAsync(Arrays.asList(
+            newTask("1", "Terminal", "bash", true, 10),
+            newTask("2", "Firefox", "", true, 11)), 12);
+        TaskSnapshot saved = nextSnapshot();
+        taskStateManager.saveSnapshotAsync(file);
+        // Updates are applied in order, so once this one is published the file is written.
+        taskStateManager.updateTaskIconsAsync(Arrays.<TaskIcon>asList());
+        nextSnapshot();
+
+        TaskStateManager restored = new TaskStateManager();
+        assertTrue(restored.restoreSnapshot(file));
+        assertEquals(saved.tasks(), restored.getSnapshot().tasks());
+        assertEquals(12, restored.getSyncSequence());
+        // Tasks already stored win over saved ones.
+        assertFalse(restored.restoreSnapshot(file));
+        restored.close();
+    }
+
+    @Test
+    public void getTaskIconById_storedIcon_loadedBeforeTasksPublished() throws Exception {
+        IconStore store = IconStore.open(folder.newFolder("icons"));
+        TaskIcon icon = TaskIcon.builder()
+            .setId("icon-1")
+            .setWidth(1)
+            .setHeight(1)
+            .setCodec(IconCodec.RAW.wireName())
+            .setPixels(new byte[] {1, 2, 3, 4})
+            .build();
+        store.put(icon);
+        final TaskStateManager storeBacked = new TaskStateManager(store);
+        assertNull(storeBacked.getTaskIconById("icon-1"));
+
+        final BlockingQueue<TaskIcon> published = new ArrayBlockingQueue<>(1);
+        storeBacked.addListener(new TaskStateManager.Listener() {
+            @Override
+            public void onStateChanged(TaskSnapshot snapshot) {
+                published.add(storeBacked.getTaskIconById("icon-1"));
+            }
+        });
+        storeBacked.replaceTasksAsync(Arrays.asList(newTask("1", "Terminal", "", true, 1)), 1);
+
+        assertEquals(icon, published.poll(5, TimeUnit.SECONDS));
+        storeBacked.close();
+    }
+
+    @Test
+    public void getMissingTaskIconIdsAsync_storedIcon_notMissing() throws Exception {
+        IconStore store = IconStore.open(folder.newFolder("icons"));
+        store.put(TaskIcon.builder()
+            .setId("icon-1")
+            .setWidth(1)
+            .setHeight(1)
+            .setCodec(IconCodec.RAW.wireName())
+            .setPixels(new byte[] {1, 2, 3, 4})
+            .build());
+        TaskStateManager storeBacked = new TaskStateManager(store);
+
+        final BlockingQueue<List<String>> missing = new ArrayBlockingQueue<>(1);
+        storeBacked.getMissingTaskIconIdsAsync(
+            Arrays.asList("icon-1", "icon-2"),
+            new TaskStateManager.MissingIconsCallback() {
+                @Override
+                public void onMissingIcons(List<String> iconIds) {
+                    missing.add(iconIds);
+                }
+            });
+
+        assertEquals(Arrays.asList("icon-2"), missing.poll(5, TimeUnit.SECONDS));
+        storeBacked.close();
+    }
+
+    private TaskSnapshot nextSnapshot() throws InterruptedException {
+        return snapshots.poll(5, TimeUnit.SECONDS);
+    }
+
+    private static Task newTask(
+            String id, String appName, String title, boolean isOpen, long sequence) {
+        return Task.builder()
+            .setId(id)
+            .setApplicationName(appName)
+            .setTitle(title)
+            .setIconId("icon-" + id)
+            .setIsOpen(isOpen)
+            .setLastUpdateTimestamp(1000)
+            .setSequence(sequence)
+            .build();
+    }
+}
@@ -0,0 +1,157 @@
+package com.slothbucket.blackduck.benchmarks;
+
+import com.slothbucket.blackduck.common.FluentLog;
+import com.slothbucket.blackduck.models.IconCodec;
+import com.slothbucket.blackduck.models.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Realistic inputs shared by the benchmarks, shaped like what the service sends.
+ */
+public final class Fixtures {
+    public static final int ICON_SIZE = 48;
+
+    private static final String[] APP_NAMES = {
+        "Terminal", "Firefox", "Files", "Text Editor", "Chromium", "Thunderbird", "LibreOffice",
+        "GIMP", "Inkscape", "VLC",
+    };
+    private static final String[] APP_ICON_IDS = new String[APP_NAMES.length];
+
+    static {
+        for (int i = 0; i < APP_NAMES.length; i++) {
+            APP_ICON_IDS[i] = iconId(i);
+        }
+    }
+
+    /** Sends log output to stderr, since android.util.Log is unavailable off-device. */
+    public static void installLogSink() {
+        FluentLog.setSink(new FluentLog.Sink() {
+            @Override
+            public void println(int priority, String tag, String message, Throwable cause) {
+                System.err.printf("%s: %s%n", tag, message);
+                if (cause != null) {
+                    cause.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public static List<Task> tasks(int count, long sequence) {
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(Task.builder()
+                .setId(taskId(i))
+                .setApplicationName(APP_NAMES[i % APP_NAMES.length])
+                .setTitle(title(i, sequence))
+                .setIconId(APP_ICON_IDS[i % APP_NAMES.length])
+                .setIsOpen(true)
+                .setLastUpdateTimestamp(1480000000L + sequence)
+                .setSequence(sequence)
+                .build());
+        }
+        return tasks;
+    }
+
+    /** Returns tasks as the service puts them on the wire. */
+    public static List<Map<String, Object>> wireTasks(int count, long sequence) {
+        List<Map<String, Object>> tasks = new ArrayList<>(count);
+        for (Task task : tasks(count, sequence)) {
+            tasks.add(wireTask(task));
+        }
+        return tasks;
+    }
+
+    /** Returns a task as the service puts it on the wire. */
+    public static Map<String, Object> wireTask(Task task) {
+        Map<String, Object> wireTask = new HashMap<>();
+        wireTask.put("id", task.id());
+        wireTask.put("app_name", task.applicationName());
+        wireTask.put("title", task.title());
+        wireTask.put("icon_id", task.iconId());
+        wireTask.put("is_open", task.isOpen());
+        wireTask.put("last_update_ts", task.lastUpdateTimestamp());
+        wireTask.put("sequence", task.sequence());
+        return wireTask;
+    }
+
+    /** Returns an icon as the service puts it on the wire. */
+    public static Map<String, Object> wireIcon(int index, IconCodec codec) {
+        return wireIcon(index, ICON_SIZE, codec);
+    }
+
+    /** Returns a square icon of the given size as the service puts it on the wire. */
+    public static Map<String, Object> wireIcon(int index, int size, IconCodec codec) {
+        Map<String, Object> icon = new HashMap<>();
+        icon.put("id", iconId(index));
+        icon.put("width", size);
+        icon.put("height", size);
+        icon.put("codec", codec.wireName());
+        icon.put("pixels", encodePixels(iconPixels(size, size, index), codec));
+        return icon;
+    }
+
+    public static String taskId(int index) {
+        return String.valueOf(60000000 + index);
+    }
+
+    public static String iconId(int index) {
+        return String.format("%032x", index);
+    }
+
+    /**
+     * Returns RGBA pixels resembling an application icon: an opaque gradient disc on a
+     * transparent background, which compresses about as well as real icons do.
+     */
+    public static byte[] iconPixels(int width, int height, int seed) {
+        byte[] pixels = new byte[width * height * 4];
+        int radius = Math.min(width, height) / 2;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx = x - width / 2;
+                int dy = y - height / 2;
+                int i = (y * width + x) * 4;
+                if (dx * dx + dy * dy <= radius * radius) {
+                    pixels[i] = (byte) (x * 5 + seed * 40);
+                    pixels[i + 1] = (byte) (y * 5);
+                    pixels[i + 2] = (byte) (seed * 90);
+                    pixels[i + 3] = (byte) 0xFF;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    public static byte[] encodePixels(byte[] pixels, IconCodec codec) {
+        switch (codec) {
+            case RAW:
+                return pixels;
+            case ZLIB:
+                Deflater deflater = new Deflater();
+                deflater.setInput(pixels);
+                deflater.finish();
+                ByteArrayOutputStream output = new ByteArrayOutputStream(pixels.length);
+                byte[] buffer = new byte[4096];
+                while (!deflater.finished()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+                deflater.end();
+                return output.toByteArray();
+            default:
+                throw new IllegalArgumentException("No encoder for " + codec);
+        }
+    }
+
+    // Built by concatenation, which is cheap enough not to swamp the benchmarks calling this.
+    public static String title(int index, long sequence) {
+        return "Document " + index + " (revision " + sequence + ") - "
+            + APP_NAMES[index % APP_NAMES.length];
+    }
+
+    private Fixtures() {}
+}
@@ -0,0 +1,334 @@
+package com.slothbucket.blackduck.client;
+
+import com.slothbucket.blackduck.benchmarks.Fixtures;
+import com.slothbucket.blackduck.loadtest.LatencyRecorder;
+import com.slothbucket.blackduck.loadtest.LoopbackServer;
+import com.slothbucket.blackduck.loadtest.SyntheticWorkload;
+import com.slothbucket.blackduck.models.Task;
+import com.slothbucket.blackduck.models.TaskSnapshot;
+import com.slothbucket.blackduck.models.TaskStateManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives clients built from the real {@link MessagePackIoBridge} and {@link TaskStateManager}
+ * against a {@link LoopbackServer}, and reports throughput and latency percentiles. Run with
+ *
+ * <pre>
+ *   ./gradlew :benchmarks:loadtest [-PloadArgs='--clients=8 --tasks=500 --churn=200']
+ * </pre>
+ *
+ * <p>Every client lists the tasks and fetches their icons once, then polls
+ * {@code list_updated_tasks} in a closed loop, activating or scaling a random task every few
+ * polls. Request latency covers writing the request and reading back its response; apply
+ * latency covers {@link TaskStateManager} taking a result in and publishing its snapshot.
+ */
+public final class LoopbackLoadDriver {
+    private static final String APPLY = "(apply)";
+    // An activation or scaling is sent after this many polls.
+    private static final int POLLS_PER_ACTION = 4;
+
+    private final int clientCount;
+    private final long durationNanos;
+    private final Map<String, LatencyRecorder> latencies = new LinkedHashMap<>();
+    private final AtomicLong tasksReceived = new AtomicLong();
+    private final AtomicLong iconBytesReceived = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private LoopbackLoadDriver(int clientCount, long durationNanos) {
+        this.clientCount = clientCount;
+        this.durationNanos = durationNanos;
+        for (String command : Arrays.asList(
+                Constants.COMMAND_LIST_TASKS,
+                Constants.COMMAND_LIST_UPDATED_TASKS,
+                Constants.COMMAND_BATCHGET_ICONS,
+                Constants.COMMAND_ACTIVATE_TASK,
+                Constants.COMMAND_SCALE_TASK,
+                APPLY)) {
+            latencies.put(command, new LatencyRecorder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int taskCount = Integer.parseInt(option(options, "tasks", "100"));
+        double churn = Double.parseDouble(option(options, "churn", "50"));
+        int iconSize = Integer.parseInt(option(options, "icon-size", "48"));
+        int clientCount = Integer.parseInt(option(options, "clients", "4"));
+        int seconds = Integer.parseInt(option(options, "seconds", "10"));
+        if (taskCount <= 0 || clientCount <= 0 || iconSize <= 0 || seconds <= 0 || churn < 0) {
+            throw new IllegalArgumentException("Options must be positive.");
+        }
+
+        Fixtures.installLogSink();
+        System.out.printf(
+            "%d tasks, %.1f title changes/s, %dpx icons; %d clients for %d s%n",
+            taskCount, churn, iconSize, clientCount, seconds);
+
+        LoopbackServer server = new LoopbackServer(
+            new SyntheticWorkload(taskCount, churn, iconSize));
+        server.start();
+        try {
+            new LoopbackLoadDriver(clientCount, TimeUnit.SECONDS.toNanos(seconds))
+                .run(server.getPort());
+        } finally {
+            server.close();
+        }
+    }
+
+    private void run(int port) throws InterruptedException {
+        final long deadline = System.nanoTime() + durationNanos;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            final LoadClient client = new LoadClient(port, i);
+            Thread thread = new Thread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        client.run(deadline);
+                    }
+                },
+                "LoadClient-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        long startNanos = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    private void report(double elapsedSeconds) {
+        System.out.printf(
+            "%-20s %9s %10s %9s %9s %9s %9s%n",
+            "", "count", "per sec", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        long requests = 0;
+        for (Map.Entry<String, LatencyRecorder> entry : latencies.entrySet()) {
+            LatencyRecorder recorder = entry.getValue();
+            if (!entry.getKey().equals(APPLY)) {
+                requests += recorder.count();
+            }
+            System.out.printf(
+                "%-20s %9d %10.1f %9.3f %9.3f %9.3f %9.3f%n",
+                entry.getKey(),
+                recorder.count(),
+                recorder.count() / elapsedSeconds,
+                millis(recorder.percentile(0.5)),
+                millis(recorder.percentile(0.9)),
+                millis(recorder.percentile(0.99)),
+                millis(recorder.percentile(1)));
+        }
+        System.out.printf(
+            "%.1f requests/s, %.1f tasks/s, %.1f KiB/s of icons, %d errors%n",
+            requests / elapsedSeconds,
+            tasksReceived.get() / elapsedSeconds,
+            iconBytesReceived.get() / elapsedSeconds / 1024,
+            errors.get());
+    }
+
+    /** One connection with its own task state, as a single device would have. */
+    private class LoadClient {
+        private final int port;
+        private final Random random;
+        private final MessagePackIoBridge bridge = new MessagePackIoBridge();
+        private final TaskStateManager taskStateManager = new TaskStateManager();
+        private final Semaphore published = new Semaphore(0);
+        private InputStream input;
+        private OutputStream output;
+        private int nextRequestId = 1;
+        private long lastUpdateTimestamp = 0;
+
+        LoadClient(int port, int seed) {
+            this.port = port;
+            this.random = new Random(seed);
+            taskStateManager.addListener(new TaskStateManager.Listener() {
+                @Override
+                public void onStateChanged(TaskSnapshot snapshot) {
+                    published.release();
+                }
+            });
+        }
+
+        void run(long deadline) {
+            Socket socket = null;
+            try {
+                socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+                socket.setTcpNoDelay(true);
+                input = socket.getInputStream();
+                output = socket.getOutputStream();
+
+                ResponsePayload listing = call(
+                    Constants.COMMAND_LIST_TASKS, RequestPayload.builder().build());
+                if (listing != null) {
+                    onTasks(listing.tasks());
+                    long startNanos = System.nanoTime();
+                    taskStateManager.replaceTasksAsync(listing.tasks(), listing.sequence());
+                    awaitSnapshot(startNanos);
+                    fetchMissingIcons();
+                }
+
+                for (int poll = 1; System.nanoTime() < deadline; poll++) {
+                    pollUpdates();
+                    if (poll % POLLS_PER_ACTION == 0) {
+                        actOnRandomTask();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                errors.incrementAndGet();
+                e.printStackTrace();
+            } finally {
+                taskStateManager.close();
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void pollUpdates() throws IOException, InterruptedException {
+            ResponsePayload updates = call(
+                Constants.COMMAND_LIST_UPDATED_TASKS,
+                RequestPayload.builder().setLastUpdateTimestamp(lastUpdateTimestamp).build());
+            if (updates == null || updates.tasks().isEmpty()) {
+                return;
+            }
+            onTasks(updates.tasks());
+            long startNanos = System.nanoTime();
+            taskStateManager.updateTasksAsync(updates.tasks());
+            awaitSnapshot(startNanos);
+            fetchMissingIcons();
+        }
+
+        private void fetchMissingIcons() throws IOException, InterruptedException {
+            Set<String> iconIds = new HashSet<>();
+            for (Task task : taskStateManager.getSnapshot().tasks()) {
+                iconIds.add(task.iconId());
+            }
+            final BlockingQueue<List<String>> missing = new ArrayBlockingQueue<>(1);
+            taskStateManager.getMissingTaskIconIdsAsync(
+                iconIds,
+                new TaskStateManager.MissingIconsCallback() {
+                    @Override
+                    public void onMissingIcons(List<String> missingIconIds) {
+                        missing.add(missingIconIds);
+                    }
+                });
+            List<String> missingIconIds = missing.take();
+            if (missingIconIds.isEmpty()) {
+                return;
+            }
+
+            ResponsePayload icons = call(
+                Constants.COMMAND_BATCHGET_ICONS,
+                RequestPayload.builder().setIconIds(missingIconIds).build());
+            if (icons != null) {
+                for (int i = 0; i < icons.icons().size(); i++) {
+                    iconBytesReceived.addAndGet(icons.icons().get(i).pixels().length);
+                }
+                long startNanos = System.nanoTime();
+                taskStateManager.updateTaskIconsAsync(icons.icons());
+                awaitSnapshot(startNanos);
+            }
+        }
+
+        private void actOnRandomTask() throws IOException {
+            List<Task> tasks = taskStateManager.getSnapshot().tasks();
+            if (tasks.isEmpty()) {
+                return;
+            }
+            String taskId = tasks.get(random.nextInt(tasks.size())).id();
+            if (random.nextBoolean()) {
+                call(
+                    Constants.COMMAND_ACTIVATE_TASK,
+                    RequestPayload.builder().setTaskId(taskId).build());
+            } else {
+                call(
+                    Constants.COMMAND_SCALE_TASK,
+                    RequestPayload.builder()
+                        .setTaskId(taskId)
+                        .setScaleAction(random.nextBoolean() ? "maximize" : "unmaximize")
+                        .build());
+            }
+        }
+
+        /** Sends a request and waits for its response. Returns null if the request failed. */
+        private ResponsePayload call(String command, RequestPayload payload) throws IOException {
+            int requestId = nextRequestId++;
+            ServiceRequest request = ServiceRequest.builder()
+                .setRequestId(requestId)
+                .setCommand(command)
+                .setPayload(payload)
+                .build();
+
+            long startNanos = System.nanoTime();
+            bridge.write(request, output);
+            ServiceResponse response = bridge.read(input);
+            latencies.get(command).record(System.nanoTime() - startNanos);
+
+            if (response.requestId() != requestId) {
+                throw new IOException(String.format(
+                    "Got response for request %d, expected %d.", response.requestId(), requestId));
+            } else if (!Constants.STATUS_OK.equals(response.status())) {
+                errors.incrementAndGet();
+                System.err.printf("%s failed: %s%n", command, response.error());
+                return null;
+            }
+            return response.payload();
+        }
+
+        private void onTasks(List<Task> tasks) {
+            tasksReceived.addAndGet(tasks.size());
+            for (Task task : tasks) {
+                lastUpdateTimestamp = Math.max(lastUpdateTimestamp, task.lastUpdateTimestamp());
+            }
+        }
+
+        private void awaitSnapshot(long startNanos) throws InterruptedException {
+            published.acquire();
+            latencies.get(APPLY).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            int split = arg.indexOf('=');
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return (value != null) ? value : defaultValue;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,155 @@
+package com.slothbucket.blackduck.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slothbucket.blackduck.benchmarks.Fixtures;
+import com.slothbucket.blackduck.models.IconCodec;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link MessagePackIoBridge}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagePackIoBridgeBenchmark {
+
+    /** A list_tasks response with the given number of tasks. */
+    @State(Scope.Thread)
+    public static class TaskListState {
+        @Param({"10", "100", "1000"})
+        int taskCount;
+
+        MessagePackIoBridge bridge;
+        InputStream responses;
+
+        @Setup
+        public void setUp() throws IOException {
+            Fixtures.installLogSink();
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("tasks", Fixtures.wireTasks(taskCount, 1));
+            payload.put("sequence", 1L);
+            bridge = new MessagePackIoBridge();
+            responses = new RepeatingInputStream(encodeResponse(payload));
+        }
+    }
+
+    /** A batchget_icons response and request for the given number of icons. */
+    @State(Scope.Thread)
+    public static class IconsState {
+        @Param({"1", "16", "64"})
+        int iconCount;
+
+        @Param({"raw", "zlib"})
+        String codec;
+
+        MessagePackIoBridge bridge;
+        InputStream responses;
+        ServiceRequest request;
+        ByteArrayOutputStream requestOutput;
+
+        @Setup
+        public void setUp() throws IOException {
+            Fixtures.installLogSink();
+            List<Map<String, Object>> icons = new ArrayList<>();
+            List<String> iconIds = new ArrayList<>();
+            for (int i = 0; i < iconCount; i++) {
+                icons.add(Fixtures.wireIcon(i, IconCodec.forWireName(codec)));
+                iconIds.add(Fixtures.iconId(i));
+            }
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("icons", icons);
+
+            bridge = new MessagePackIoBridge();
+            responses = new RepeatingInputStream(encodeResponse(payload));
+            request = ServiceRequest.builder()
+                .setRequestId(42)
+                .setCommand(Constants.COMMAND_BATCHGET_ICONS)
+                .setPayload(RequestPayload.builder().setIconIds(iconIds).build())
+                .build();
+            requestOutput = new ByteArrayOutputStream();
+        }
+    }
+
+    @Benchmark
+    public ServiceResponse readListTasksResponse(TaskListState state) throws IOException {
+        return state.bridge.read(state.responses);
+    }
+
+    @Benchmark
+    public ServiceResponse readBatchGetIconsResponse(IconsState state) throws IOException {
+        return state.bridge.read(state.responses);
+    }
+
+    @Benchmark
+    public int writeBatchGetIconsRequest(IconsState state) throws IOException {
+        state.requestOutput.reset();
+        state.bridge.write(state.request, state.requestOutput);
+        return state.requestOutput.size();
+    }
+
+    private static byte[] encodeResponse(Map<String, Object> payload) throws IOException {
+        Map<String, Object> response = new HashMap<>();
+        response.put("request_id", 42);
+        response.put("status", Constants.STATUS_OK);
+        response.put("payload", payload);
+        byte[] body = new ObjectMapper(new MessagePackFactory()).writeValueAsBytes(response);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream frameOutput = new DataOutputStream(frame);
+        frameOutput.writeInt(body.length);
+        frameOutput.write(body);
+        return frame.toByteArray();
+    }
+
+    /**
+     * Replays one framed message forever, so the bridge reads back-to-back messages from a single
+     * stream the way it does from a live socket.
+     */
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] message;
+        private int position = 0;
+
+        RepeatingInputStream(byte[] message) {
+            this.message = message;
+        }
+
+        @Override
+        public int read() {
+            int value = message[position] & 0xFF;
+            position = (position + 1) % message.length;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            int count = Math.min(length, message.length - position);
+            System.arraycopy(message, position, buffer, offset, count);
+            position = (position + count) % message.length;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.slothbucket.blackduck.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples from any number of threads and reports their percentiles.
+ */
+public final class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    public synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Returns the sample below which the given fraction of samples fall, in nanoseconds, or 0 if
+     * nothing was recorded.
+     */
+    public synchronized long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+}
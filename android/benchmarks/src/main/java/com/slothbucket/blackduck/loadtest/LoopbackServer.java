@@ -0,0 +1,261 @@
+package com.slothbucket.blackduck.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slothbucket.blackduck.common.FluentLog;
+import com.slothbucket.blackduck.common.Preconditions;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stand-in for the host service that speaks the same msgpack protocol over TCP loopback, serving
+ * a {@link SyntheticWorkload} instead of a real screen.
+ *
+ * <p>It answers {@code list_tasks}, {@code list_updated_tasks}, {@code batchget_icons},
+ * {@code activate_task} and {@code scale_task} the way the host does, with the same statuses and
+ * error messages; any other command is refused as unrecognized. Only framed clients are served.
+ * Each connection gets its own thread.
+ */
+public final class LoopbackServer implements Closeable {
+    private static final FluentLog logger = FluentLog.loggerFor("blackduck", LoopbackServer.class);
+
+    // Same limit as the host service.
+    private static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private static final String STATUS_OK = "ok";
+    private static final String STATUS_CLIENT_ERROR = "client-error";
+
+    private final SyntheticWorkload workload;
+    private final ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+    private final Set<Socket> clients =
+        Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private ServerSocket serverSocket;
+    private volatile boolean closed = false;
+
+    public LoopbackServer(SyntheticWorkload workload) {
+        this.workload = Preconditions.checkNotNull(workload);
+    }
+
+    /** Starts listening on an ephemeral loopback port. */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(
+            new Runnable() {
+                @Override
+                public void run() {
+                    acceptClients();
+                }
+            },
+            "LoopbackServerAccept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void acceptClients() {
+        while (!closed) {
+            final Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.atError().withCause(e).log("Failed to accept client.");
+                }
+                return;
+            }
+
+            clients.add(client);
+            Thread clientThread = new Thread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                },
+                "LoopbackServerClient");
+            clientThread.setDaemon(true);
+            clientThread.start();
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            DataInputStream input =
+                new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            while (!closed) {
+                int length = input.readInt();
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Frame of " + length + " bytes is too large.");
+                }
+                byte[] body = new byte[length];
+                input.readFully(body);
+
+                @SuppressWarnings("unchecked")
+                Map<String, Object> request = mapper.readValue(body, Map.class);
+                byte[] response = mapper.writeValueAsBytes(handle(request));
+                output.writeInt(response.length);
+                output.write(response);
+                output.flush();
+            }
+        } catch (EOFException e) {
+            logger.atDebug().log("Client disconnected.");
+        } catch (IOException e) {
+            if (!closed) {
+                logger.atError().withCause(e).log("Failed to serve client.");
+            }
+        } finally {
+            clients.remove(client);
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.atWarning().withCause(e).log("Failed to close client socket.");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> handle(Map<String, Object> request) {
+        Object requestId = request.get("request_id");
+        Map<String, Object> payload = (Map<String, Object>) request.get("payload");
+        if (payload == null) {
+            payload = Collections.emptyMap();
+        }
+
+        String command = String.valueOf(request.get("command"));
+        switch (command) {
+            case "list_tasks":
+                return listTasks(requestId);
+            case "list_updated_tasks":
+                return listUpdatedTasks(requestId, payload);
+            case "batchget_icons":
+                return batchGetIcons(requestId, payload);
+            case "activate_task":
+                return activateTask(requestId, payload);
+            case "scale_task":
+                return scaleTask(requestId, payload);
+            default:
+                return clientError(requestId, "Unrecognized command.");
+        }
+    }
+
+    private Map<String, Object> listTasks(Object requestId) {
+        // Read the sequence first, as the host does.
+        long sequence = workload.getSequence();
+        Map<String, Object> result = new HashMap<>();
+        result.put("tasks", workload.listTasks());
+        result.put("sequence", sequence);
+        return ok(requestId, result);
+    }
+
+    private Map<String, Object> listUpdatedTasks(Object requestId, Map<String, Object> payload) {
+        if (!payload.containsKey("last_update_ts")) {
+            return clientError(requestId, "Missing \"last_update_ts\" in payload.");
+        }
+        long lastUpdateTimestamp = ((Number) payload.get("last_update_ts")).longValue();
+        Map<String, Object> result = new HashMap<>();
+        result.put("tasks", workload.listUpdatedTasks(lastUpdateTimestamp));
+        return ok(requestId, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> batchGetIcons(Object requestId, Map<String, Object> payload) {
+        if (!payload.containsKey("icon_ids")) {
+            return clientError(requestId, "Missing \"icon_ids\" in payload.");
+        }
+        List<Map<String, Object>> icons = new ArrayList<>();
+        for (String iconId : (List<String>) payload.get("icon_ids")) {
+            Map<String, Object> icon = workload.getIcon(iconId);
+            // Like the real server, icons that are gone are left out rather than failing all.
+            if (icon != null) {
+                icons.add(icon);
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("icons", icons);
+        return ok(requestId, result);
+    }
+
+    private Map<String, Object> activateTask(Object requestId, Map<String, Object> payload) {
+        if (!payload.containsKey("task_id")) {
+            return clientError(requestId, "Missing \"task_id\" in payload.");
+        }
+        return taskExists(payload) ? ok(requestId, null) : unknownTask(requestId, payload);
+    }
+
+    private Map<String, Object> scaleTask(Object requestId, Map<String, Object> payload) {
+        if (!payload.containsKey("task_id")) {
+            return clientError(requestId, "Missing \"task_id\" in payload.");
+        } else if (!payload.containsKey("scale_action")) {
+            return clientError(requestId, "Missing \"action\" in payload.");
+        } else if (!"maximize".equals(payload.get("scale_action"))
+                && !"unmaximize".equals(payload.get("scale_action"))) {
+            return clientError(
+                requestId,
+                "Invalid options for \"scale_action\"; must be either \"maximize\" or "
+                    + "\"unmaximize\"");
+        }
+        return taskExists(payload) ? ok(requestId, null) : unknownTask(requestId, payload);
+    }
+
+    private boolean taskExists(Map<String, Object> payload) {
+        return workload.hasTask(String.valueOf(payload.get("task_id")));
+    }
+
+    private static Map<String, Object> unknownTask(Object requestId, Map<String, Object> payload) {
+        return clientError(requestId, "Could not find task with ID " + payload.get("task_id"));
+    }
+
+    private static Map<String, Object> ok(Object requestId, Map<String, Object> payload) {
+        Map<String, Object> response = response(requestId, STATUS_OK);
+        response.put(
+            "payload",
+            (payload != null) ? payload : Collections.<String, Object>emptyMap());
+        return response;
+    }
+
+    private static Map<String, Object> clientError(Object requestId, String message) {
+        logger.atError().log("%s", message);
+        Map<String, Object> response = response(requestId, STATUS_CLIENT_ERROR);
+        response.put("error", message);
+        return response;
+    }
+
+    private static Map<String, Object> response(Object requestId, String status) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("request_id", requestId);
+        response.put("status", status);
+        return response;
+    }
+}
@@ -0,0 +1,104 @@
+package com.slothbucket.blackduck.loadtest;
+
+import com.slothbucket.blackduck.benchmarks.Fixtures;
+import com.slothbucket.blackduck.common.Preconditions;
+import com.slothbucket.blackduck.models.IconCodec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A desktop of synthetic windows whose titles keep changing at a steady rate, standing in for
+ * the screen of a real host.
+ *
+ * <p>Title changes are applied lazily, whenever the workload is read, so no thread is needed to
+ * drive them. Every change advances the sequence, and timestamps follow the sequence, so
+ * {@code last_update_ts} comparisons behave as they do against a live window manager.
+ */
+public final class SyntheticWorkload {
+    private static final long BASE_TIMESTAMP = 1480000000L;
+
+    private final List<Map<String, Object>> tasks;
+    private final Map<String, Integer> taskIndexes = new HashMap<>();
+    private final Map<String, Map<String, Object>> icons = new HashMap<>();
+    private final double changesPerSecond;
+    private final Random random = new Random(42);
+    private final long startNanos = System.nanoTime();
+    private long appliedChanges = 0;
+    private long sequence = 1;
+
+    /**
+     * @param taskCount number of open windows
+     * @param changesPerSecond title changes per second, spread over random windows; ignored if
+     *     there are none
+     * @param iconSize width and height of every icon, in pixels
+     */
+    public SyntheticWorkload(int taskCount, double changesPerSecond, int iconSize) {
+        Preconditions.checkArgument(taskCount >= 0, "Negative task count %d", taskCount);
+        Preconditions.checkArgument(
+            changesPerSecond >= 0, "Negative change rate %f", changesPerSecond);
+        // An empty desktop has no windows to change.
+        this.changesPerSecond = (taskCount > 0) ? changesPerSecond : 0;
+        this.tasks = Fixtures.wireTasks(taskCount, sequence);
+        for (int i = 0; i < taskCount; i++) {
+            Map<String, Object> task = tasks.get(i);
+            taskIndexes.put((String) task.get("id"), i);
+            String iconId = (String) task.get("icon_id");
+            if (!icons.containsKey(iconId)) {
+                // Windows share their application's icon, first used by the window at its index.
+                icons.put(iconId, Fixtures.wireIcon(i, iconSize, IconCodec.RAW));
+            }
+        }
+    }
+
+    /** Returns every open window. */
+    public synchronized List<Map<String, Object>> listTasks() {
+        catchUp();
+        return new ArrayList<>(tasks);
+    }
+
+    public synchronized long getSequence() {
+        catchUp();
+        return sequence;
+    }
+
+    /** Returns the windows updated after the given timestamp. */
+    public synchronized List<Map<String, Object>> listUpdatedTasks(long lastUpdateTimestamp) {
+        catchUp();
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> task : tasks) {
+            if ((Long) task.get("last_update_ts") > lastUpdateTimestamp) {
+                results.add(task);
+            }
+        }
+        return results;
+    }
+
+    /** Returns the icon with the given ID, or null if there is none. */
+    public synchronized Map<String, Object> getIcon(String iconId) {
+        return icons.get(iconId);
+    }
+
+    public synchronized boolean hasTask(String taskId) {
+        return taskIndexes.containsKey(taskId);
+    }
+
+    // Must hold the lock.
+    private void catchUp() {
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        long dueChanges = (long) (elapsedSeconds * changesPerSecond);
+        for (; appliedChanges < dueChanges; appliedChanges++) {
+            sequence++;
+            int index = random.nextInt(tasks.size());
+            // Listings hand out the maps themselves, so a changed window gets a new one.
+            Map<String, Object> task = new HashMap<>(tasks.get(index));
+            task.put("title", Fixtures.title(index, sequence));
+            task.put("last_update_ts", BASE_TIMESTAMP + sequence);
+            task.put("sequence", sequence);
+            tasks.set(index, task);
+        }
+    }
+}
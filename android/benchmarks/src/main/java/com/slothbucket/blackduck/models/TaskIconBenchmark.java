@@ -0,0 +1,67 @@
+package com.slothbucket.blackduck.models;
+
+import com.slothbucket.blackduck.benchmarks.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for decoding {@link TaskIcon} pixels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskIconBenchmark {
+
+    @Param({"raw", "zlib"})
+    String codec;
+
+    @Param({"48", "96"})
+    int size;
+
+    private TaskIcon icon;
+    private byte[] decodedPixels;
+
+    @Setup
+    public void setUp() {
+        Fixtures.installLogSink();
+        IconCodec iconCodec = IconCodec.forWireName(codec);
+        icon = TaskIcon.builder()
+            .setId(Fixtures.iconId(0))
+            .setWidth(size)
+            .setHeight(size)
+            .setCodec(codec)
+            .setPixels(Fixtures.encodePixels(Fixtures.iconPixels(size, size, 0), iconCodec))
+            .build();
+        decodedPixels = icon.decodePixels();
+    }
+
+    @Benchmark
+    public byte[] decodePixels() {
+        return icon.decodePixels();
+    }
+
+    @Benchmark
+    public int[] rgbaToArgb() {
+        return TaskIcon.rgbaToArgb(decodedPixels, size * size);
+    }
+
+    @Benchmark
+    public int[] getPixelsAsArgb() {
+        return icon.getPixelsAsArgb();
+    }
+}
@@ -0,0 +1,83 @@
+package com.slothbucket.blackduck.models;
+
+import com.slothbucket.blackduck.benchmarks.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link TaskStateManager}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskStateManagerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int taskCount;
+
+    private final BlockingQueue<TaskSnapshot> snapshots = new LinkedBlockingQueue<>();
+    private TaskStateManager taskStateManager;
+    private long sequence;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        Fixtures.installLogSink();
+        taskStateManager = new TaskStateManager();
+        taskStateManager.addListener(new TaskStateManager.Listener() {
+            @Override
+            public void onStateChanged(TaskSnapshot snapshot) {
+                snapshots.add(snapshot);
+            }
+        });
+
+        sequence = 1;
+        taskStateManager.updateTasksAsync(Fixtures.tasks(taskCount, sequence), sequence);
+        snapshots.take();
+    }
+
+    @TearDown
+    public void tearDown() {
+        taskStateManager.close();
+    }
+
+    /**
+     * Applies a sync in which every task changed, and waits for the resulting snapshot. Building
+     * the changed tasks is included, as deserializing them would be on a device.
+     */
+    @Benchmark
+    public TaskSnapshot updateTasksAsync() throws InterruptedException {
+        sequence++;
+        taskStateManager.updateTasksAsync(Fixtures.tasks(taskCount, sequence), sequence);
+        return snapshots.take();
+    }
+
+    /**
+     * Applies a sync in which a single task changed, the usual case, and waits for the resulting
+     * snapshot. Every task is still sorted into the new snapshot, so this measures the cost of
+     * rebuilding it.
+     */
+    @Benchmark
+    public TaskSnapshot updateOneTaskAsync() throws InterruptedException {
+        sequence++;
+        taskStateManager.updateTasksAsync(Fixtures.tasks(1, sequence), sequence);
+        return snapshots.take();
+    }
+}
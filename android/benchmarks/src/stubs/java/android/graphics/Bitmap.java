@@ -0,0 +1,20 @@
+package android.graphics;
+
+/**
+ * Desktop stand-in for the framework class. Benchmarks decode icons to ARGB arrays, never to
+ * bitmaps, so creating one throws.
+ */
+public final class Bitmap {
+    public enum Config {
+        ALPHA_8,
+        RGB_565,
+        ARGB_4444,
+        ARGB_8888
+    }
+
+    private Bitmap() {}
+
+    public static Bitmap createBitmap(int[] colors, int width, int height, Config config) {
+        throw new UnsupportedOperationException("Bitmap is not available off-device.");
+    }
+}
@@ -0,0 +1,66 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Desktop stand-in for the framework class. Nothing benchmarked parcels anything, so every
+ * method throws, as those of the SDK's stub android.jar do.
+ */
+public final class Parcel {
+    private Parcel() {}
+
+    public void writeInt(int val) {
+        throw stub();
+    }
+
+    public void writeLong(long val) {
+        throw stub();
+    }
+
+    public void writeString(String val) {
+        throw stub();
+    }
+
+    public void writeByteArray(byte[] b) {
+        throw stub();
+    }
+
+    @SuppressWarnings("rawtypes")
+    public void writeList(List val) {
+        throw stub();
+    }
+
+    public void writeParcelable(Parcelable p, int parcelableFlags) {
+        throw stub();
+    }
+
+    public int readInt() {
+        throw stub();
+    }
+
+    public long readLong() {
+        throw stub();
+    }
+
+    public String readString() {
+        throw stub();
+    }
+
+    public byte[] createByteArray() {
+        throw stub();
+    }
+
+    @SuppressWarnings("rawtypes")
+    public ArrayList readArrayList(ClassLoader loader) {
+        throw stub();
+    }
+
+    public <T extends Parcelable> T readParcelable(ClassLoader loader) {
+        throw stub();
+    }
+
+    private static UnsupportedOperationException stub() {
+        return new UnsupportedOperationException("Parcel is not available off-device.");
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/** Desktop stand-in for the framework interface, so parcelable models compile off-device. */
+public interface Parcelable {
+    int CONTENTS_FILE_DESCRIPTOR = 0x0001;
+    int PARCELABLE_WRITE_RETURN_VALUE = 0x0001;
+
+    int describeContents();
+
+    void writeToParcel(Parcel dest, int flags);
+
+    interface Creator<T> {
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+}
@@ -5,13 +5,32 @@
 import bluetooth
 import msgpack
 import logging as log
+import socket
 
+from functools import partial
 from Queue import Queue
-from threading import Thread
+from threading import Lock, Thread
+
+from blackduck import iconcodec, wire
 
 SERVICE_NAME = 'BlackDuckService'
 SERVICE_UUID = '7f759fe2-b22a-11e6-ba35-37c9859e1514'
 
+# Number of requests that may be processed concurrently.
+NUM_WORKERS = 4
+
+# Request ID carried by frames the service pushes without being asked.
+NOTIFICATION_REQUEST_ID = 0
+
+# Bytes to ask the socket for per read. RFCOMM hands back at most what has arrived, so a large
+# buffer costs nothing and takes a whole request in one call.
+RECV_BUFFER_SIZE = 64 * 1024
+
+# Pending TCP connections to queue up before refusing more.
+TCP_BACKLOG = 5
+# Only this host can reach the TCP listener unless it is told to listen elsewhere.
+DEFAULT_TCP_ADDRESS = '127.0.0.1'
+
 
 class Status:
     OK = 'ok'
@@ -24,15 +43,20 @@ class Command:
     BATCHGET_ICONS = 'batchget_icons'
     ACTIVATE_TASK = 'activate_task'
     SCALE_TASK = 'scale_task'
+    SUBSCRIBE_TASKS = 'subscribe_tasks'
+    SYNC_TASKS = 'sync_tasks'
+    OPEN_SESSION = 'open_session'
 
 
 class Context(object):
-    __slots__ = ['request_id', 'command', 'screen_manager']
+    __slots__ = ['request_id', 'command', 'screen_manager', 'connection', 'service']
 
-    def __init__(self, request_id, command, screen_manager):
+    def __init__(self, request_id, command, screen_manager, connection, service):
         self.request_id = request_id
         self.command = command
         self.screen_manager = screen_manager
+        self.connection = connection
+        self.service = service
 
 
 class Handler(object):
@@ -61,6 +85,11 @@ class Handler(object):
     def ok_response(self, payload=None):
         return self.response(Status.OK, payload=payload or {})
 
+    def send_chunk(self, payload):
+        """Sends one intermediate chunk of a streamed response; the response returned by handle()
+        ends the stream."""
+        self.context.connection.send(self.response(Status.OK, payload=payload, more=True))
+
     def handle(self, payload):
         raise NotImplementedError()
 
@@ -79,7 +108,10 @@ class ListTasksHandler(Handler):
 
     def handle(self, payload):
         try:
-            return self.ok_response({'tasks': self.context.screen_manager.list_tasks()})
+            # Read the sequence first; changes racing with the listing are then resent on sync.
+            screen_manager = self.context.screen_manager
+            sequence = screen_manager.journal.sequence
+            return self.ok_response({'tasks': screen_manager.list_tasks(), 'sequence': sequence})
         except Exception as e:
             return self.server_error_response(e, 'Internal error trying to list tasks.')
 
@@ -104,6 +136,24 @@ class ListUpdatedTasksHandler(Handler):
             return self.server_error_response(e, 'Internal error listing task updates.')
 
 
+class SyncTasksHandler(Handler):
+    def __init__(self, context):
+        super(SyncTasksHandler, self).__init__(context)
+
+    def handle(self, payload):
+        if 'since_sequence' not in payload:
+            return self.client_error_response('Missing "since_sequence" in payload.')
+
+        try:
+            since = long(payload['since_sequence'])
+            screen_manager = self.context.screen_manager
+            screen_manager.acknowledge(self.context.connection, since)
+            patches = bool(payload.get('accept_patches', False))
+            return self.ok_response(screen_manager.sync_tasks(since, patches))
+        except Exception as e:
+            return self.server_error_response(e, 'Internal error syncing tasks.')
+
+
 class BatchGetIconsHandler(Handler):
     def __init__(self, context):
         super(BatchGetIconsHandler, self).__init__(context)
@@ -112,14 +162,28 @@ class BatchGetIconsHandler(Handler):
         if 'icon_ids' not in payload:
             return self.client_error_response('Missing "icon_ids" in payload.')
 
+        # Clients that do not ask for chunks get every icon in a single response.
+        max_chunk_bytes = payload.get('max_chunk_bytes', 0)
+
         try:
             icons = []
+            chunk_bytes = 0
             for icon_id in payload['icon_ids']:
-                icon = self.context.screen_manager.get_icon(icon_id)
+                icon = self.context.screen_manager.get_icon(
+                    icon_id, self.context.connection.icon_codec)
                 if not icon:
-                    return self.client_error_response('Could not find icon with ID %s', icon_id)
+                    # Icons can be collected between a listing and its fetch; send the rest.
+                    log.warning('Could not find icon with ID %s.', icon_id)
+                    continue
+
+                icon_bytes = len(icon)
+                if max_chunk_bytes > 0 and icons and chunk_bytes + icon_bytes > max_chunk_bytes:
+                    self.send_chunk({'icons': icons})
+                    icons = []
+                    chunk_bytes = 0
 
                 icons.append(icon)
+                chunk_bytes += icon_bytes
             return self.ok_response({'icons': icons})
         except Exception as e:
             return self.server_error_response(e, 'Internal error fetching icons.')
@@ -166,69 +230,286 @@ class ScaleTaskHandler(Handler):
             return self.server_error_response(e, 'Internal error scaling task.')
 
 
+class OpenSessionHandler(Handler):
+    """Negotiates per-session options. Clients that never open a session get the defaults."""
+
+    def __init__(self, context):
+        super(OpenSessionHandler, self).__init__(context)
+
+    def handle(self, payload):
+        try:
+            connection = self.context.connection
+            connection.icon_codec = iconcodec.negotiate(payload.get('icon_codecs'))
+            log.info('Client %s will receive icons as %s.', connection.addr, connection.icon_codec)
+            if payload.get('string_table') and connection.strings is None:
+                connection.strings = wire.StringTable()
+            response = {'icon_codec': connection.icon_codec,
+                        'string_table': connection.strings is not None}
+            # Tells clients on the slow link where they can reach us faster.
+            service = self.context.service
+            tcp_addresses = service.tcp_addresses()
+            if tcp_addresses:
+                response['tcp_port'] = service.tcp_port
+                response['tcp_addresses'] = tcp_addresses
+            return self.ok_response(response)
+        except Exception as e:
+            return self.server_error_response(e, 'Internal error opening session.')
+
+
+class SubscribeTasksHandler(Handler):
+    def __init__(self, context):
+        super(SubscribeTasksHandler, self).__init__(context)
+
+    def handle(self, payload):
+        try:
+            self.context.connection.subscribe(bool(payload.get('accept_patches', False)))
+            return self.ok_response()
+        except Exception as e:
+            return self.server_error_response(e, 'Internal error subscribing to tasks.')
+
+
 class HandlerFactory(object):
     def __init__(self, parent):
         self.parent = parent
         self.handlers = {
             Command.LIST_TASKS: ListTasksHandler,
             Command.LIST_UPDATED_TASKS: ListUpdatedTasksHandler,
+            Command.SYNC_TASKS: SyncTasksHandler,
             Command.BATCHGET_ICONS: BatchGetIconsHandler,
             Command.ACTIVATE_TASK: ActivateTaskHandler,
             Command.SCALE_TASK: ScaleTaskHandler,
+            Command.SUBSCRIBE_TASKS: SubscribeTasksHandler,
+            Command.OPEN_SESSION: OpenSessionHandler,
         }
 
-    def create(self, command_name, request_id):
+    def create(self, command_name, request_id, connection):
         builder = self.handlers.get(command_name, BlackHoleHandler)
-        return builder(Context(request_id, command_name, self.parent.screen_manager))
+        return builder(Context(
+            request_id, command_name, self.parent.screen_manager, connection, self.parent))
+
+
+class TaskSubscription(object):
+    """Pushes task changes to a subscribed client.
+
+    Change events arrive on the GTK main thread and are only recorded there; a worker later
+    flushes the current state of every changed task in a single frame, so bursts of events
+    coalesce and the main thread never blocks on the socket."""
+
+    def __init__(self, connection, schedule, patches):
+        self.connection = connection
+        self.schedule = schedule
+        self.patches = patches
+        # Every change up to here has been pushed, or predates the subscription; patches are
+        # relative to it.
+        self.base_sequence = connection.screen_manager.journal.sequence
+        self.lock = Lock()
+        self.flush_lock = Lock()
+        self.pending = {}
+        self.flush_scheduled = False
+
+    def on_task_changed(self, task):
+        with self.lock:
+            self.pending[task.task_id] = task
+            if self.flush_scheduled:
+                return
+            self.flush_scheduled = True
+
+        self.schedule(self.flush)
+
+    def flush(self):
+        # Flushes are serialized so a later frame always carries later state.
+        with self.flush_lock:
+            with self.lock:
+                tasks = self.pending.values()
+                self.pending = {}
+                self.flush_scheduled = False
+
+            # Changes reach this subscription in journal order, so every change up to the newest
+            # one here has now been pushed, or predates the subscription.
+            if tasks:
+                sequence = max(task.sequence for task in tasks)
+                payload = self.connection.screen_manager.encode_changes(
+                    tasks, self.base_sequence, self.patches)
+                payload['sequence'] = sequence
+                self.base_sequence = max(self.base_sequence, sequence)
+                self.connection.send({
+                    'request_id': NOTIFICATION_REQUEST_ID,
+                    'status': Status.OK,
+                    'payload': payload,
+                })
+
+
+class ClientConnection(object):
+    """A connected client. Responses may be sent to it from any worker thread."""
+
+    def __init__(self, sock, addr, screen_manager, schedule):
+        self.sock = sock
+        self.addr = addr
+        self.screen_manager = screen_manager
+        self.schedule = schedule
+        # Created on the first bytes received, which tell whether the client sends frames.
+        self.reader = None
+        self.framed = False
+        self.send_lock = Lock()
+        self.closed = False
+        self.subscription = None
+        self.icon_codec = iconcodec.DEFAULT
+        # Set once the client opens a session that asks for string codes.
+        self.strings = None
+
+    def subscribe(self, patches=False):
+        """Starts pushing task changes to this client, as patches where possible if asked to.
+        Subscribing again is a no-op."""
+        if self.subscription is None:
+            self.subscription = TaskSubscription(self, self.schedule, patches)
+            self.screen_manager.add_listener(self.subscription.on_task_changed)
+            log.info('Client %s subscribed to task changes.', self.addr)
+
+    def receive(self, data):
+        """Feeds received bytes in and returns an iterator over the requests they complete.
+        Clients that send frames are answered with frames; older ones with bare messages."""
+        if self.reader is None:
+            self.framed = wire.is_framed(data[0])
+            self.reader = wire.FrameReader() if self.framed else msgpack.Unpacker()
+        self.reader.feed(data)
+        return self.reader
+
+    def send(self, response):
+        with self.send_lock:
+            if self.closed:
+                log.debug('Dropping response for closed connection %s.', self.addr)
+                return
+
+            # Packed under the lock: a string's code must reach the client before any use of it.
+            message = response
+            if self.strings is not None:
+                message = self.strings.encode_response(response)
+            data = wire.pack(message)
+            if self.framed:
+                data = wire.frame(data)
+            self._send_fully(data)
+        log.debug('Sent message to client %s:\n%s', self.addr, response)
+
+    def _send_fully(self, data):
+        # send() may write only part of a large response, so keep going from where it stopped.
+        offset = 0
+        while offset < len(data):
+            offset += self.sock.send(buffer(data, offset))
+
+    def close(self):
+        if self.subscription is not None:
+            self.screen_manager.remove_listener(self.subscription.on_task_changed)
+        self.screen_manager.forget_client(self)
+
+        with self.send_lock:
+            self.closed = True
+            self.sock.close()
 
 
 class BluetoothService(Thread):
-    def __init__(self, screen_manager):
+    """Serves clients over RFCOMM and, if given a port, over TCP as well. Each connection is
+    handled on its own thread, so a client can come back on another transport before the link
+    it is leaving has been torn down."""
+
+    def __init__(self, screen_manager, num_workers=NUM_WORKERS, tcp_port=0,
+                 tcp_address=DEFAULT_TCP_ADDRESS):
+        """An empty tcp_address listens on every interface."""
         super(BluetoothService, self).__init__(name='BluetoothService')
         self.daemon = True
         self.screen_manager = screen_manager
+        self.tcp_port = tcp_port
+        self.tcp_address = tcp_address
         self.handler_factory = HandlerFactory(self)
-        self.unpacker = msgpack.Unpacker()
-        self.requests = Queue()
-
-    def _read_socket(self, client_sock):
-        while True:
-            buf = client_sock.recv(128)
-            if not buf:
-                return False
-
-            self.unpacker.feed(buf)
-            for request in self.unpacker:
-                self.requests.put(request)
-
-            if not self.requests.empty():
-                return True
-
-    def _process_request(self, msg):
+        self.jobs = Queue()
+        self.workers = []
+        for i in range(num_workers):
+            worker = Thread(name='BluetoothServiceWorker-%d' % i, target=self._run_jobs)
+            worker.daemon = True
+            self.workers.append(worker)
+
+    def _read_socket(self, connection):
+        """Queues every complete request available on the socket. Returns False on EOF."""
+        buf = connection.sock.recv(RECV_BUFFER_SIZE)
+        if not buf:
+            return False
+
+        for request in connection.receive(buf):
+            self.schedule(partial(self._process_request, connection, request))
+        return True
+
+    def schedule(self, job):
+        """Runs a job on one of the worker threads."""
+        self.jobs.put(job)
+
+    def _process_request(self, connection, msg):
+        log.debug('Received request from client %s:\n%s', connection.addr, msg)
         command = msg.get('command', '')
         request_id = msg.get('request_id', 0xDEADBEEF)
         payload = msg.get('payload', {})
-        handler = self.handler_factory.create(command, request_id)
-        return handler.handle(payload)
+        handler = self.handler_factory.create(command, request_id, connection)
+        connection.send(handler.handle(payload))
+
+    def _run_jobs(self):
+        """Worker loop. Requests are handled concurrently so a slow command never holds up the
+        responses to the ones queued behind it; the client matches them up by request ID."""
+        while True:
+            job = self.jobs.get()
+            try:
+                job()
+            except IOError as e:
+                # Covers both Bluetooth and TCP socket errors.
+                log.error('Socket error while sending response.', exc_info=e)
+            except Exception as e:
+                log.exception('Unexpected error while processing request.', exc_info=e)
 
     def manage_connection(self, client_sock, client_addr):
+        connection = ClientConnection(
+            client_sock, client_addr, self.screen_manager, self.schedule)
         try:
-            while True:
-                log.info('Waiting for requests...')
-                if not self._read_socket(client_sock):
-                    continue
-
-                request = self.requests.get()
-                log.debug('Received request from client %s:\n%s', client_addr, request)
-                response = self._process_request(request)
-                client_sock.send(msgpack.packb(response))
-                log.debug('Sent message to client %s:\n%s', client_addr, response)
-        except bluetooth.BluetoothError as e:
-            log.error('Bluetooth error while handling connection.', exc_info=e)
+            log.info('Waiting for requests...')
+            while self._read_socket(connection):
+                pass
+        except IOError as e:
+            log.error('Socket error while handling connection.', exc_info=e)
+        except ValueError as e:
+            log.error('Malformed request from client %s.', client_addr, exc_info=e)
         finally:
-            client_sock.close()
+            connection.close()
             log.info('Connection with client %s closed.', client_addr)
 
+    def _start_connection(self, client_sock, client_addr):
+        log.info('Accepted connection from client %s.', client_addr)
+        thread = Thread(name='BluetoothServiceConnection-%s' % (client_addr,),
+                        target=self.manage_connection, args=(client_sock, client_addr))
+        thread.daemon = True
+        thread.start()
+
+    def tcp_addresses(self):
+        """Returns the addresses clients on other hosts can reach the TCP listener at."""
+        if not self.tcp_port:
+            return []
+        if not self.tcp_address:
+            return lan_addresses()
+        return [] if self.tcp_address.startswith('127.') else [self.tcp_address]
+
+    def _serve_tcp(self):
+        sock = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
+        sock.setsockopt(socket.SOL_SOCKET, socket.SO_REUSEADDR, 1)
+        sock.bind((self.tcp_address, self.tcp_port))
+        sock.listen(TCP_BACKLOG)
+        log.info('Listening for TCP connections on %s:%d.',
+                 self.tcp_address or '*', self.tcp_port)
+        try:
+            while True:
+                client_sock, client_addr = sock.accept()
+                # Requests and responses are small and latency-bound.
+                client_sock.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
+                self._start_connection(client_sock, client_addr)
+        except IOError as e:
+            log.error('TCP listener failed.', exc_info=e)
+        finally:
+            sock.close()
+
     def run(self):
         sock = bluetooth.BluetoothSocket(bluetooth.RFCOMM)
         sock.bind(("", bluetooth.PORT_ANY))
@@ -242,12 +523,19 @@ class BluetoothService(Thread):
             profiles = [bluetooth.SERIAL_PORT_PROFILE])
         log.debug('Advertising Bluetooth service as "%s"', SERVICE_NAME)
 
+        for worker in self.workers:
+            worker.start()
+
+        if self.tcp_port:
+            tcp_thread = Thread(name='BluetoothServiceTcp', target=self._serve_tcp)
+            tcp_thread.daemon = True
+            tcp_thread.start()
+
         try:
             while True:
                 log.info('Waiting for connection from client...')
                 client_sock, client_addr = sock.accept()
-                log.info('Accepted connection from client %s.', client_addr)
-                self.manage_connection(client_sock, client_addr)
+                self._start_connection(client_sock, client_addr)
         except KeyboardInterrupt:
             log.info('User requested termination.')
         finally:
@@ -256,3 +544,17 @@ class BluetoothService(Thread):
             log.info('Bluetooth service stopped.')
 
 
+def lan_addresses():
+    """Returns the IPv4 addresses this host is likely reachable at on the local network. Only the
+    address of the interface holding the default route is found, which is the one that matters
+    for a phone on the same network."""
+    probe = socket.socket(socket.AF_INET, socket.SOCK_DGRAM)
+    try:
+        # Connecting a UDP socket sends nothing; it only picks the outgoing interface.
+        probe.connect(('192.0.2.1', 9))
+        address = probe.getsockname()[0]
+    except IOError:
+        return []
+    finally:
+        probe.close()
+    return [] if address.startswith('127.') else [address]
@@ -0,0 +1,47 @@
+# Pixel codecs for icon payloads.
+#
+# The codec is negotiated per session so that each client can trade CPU for bandwidth as suits its
+# link: zlib compresses best, LZ4 decodes much faster on slow CPUs, and raw costs nothing at all.
+
+import zlib
+import logging as log
+
+try:
+    import lz4.block as lz4_block
+except ImportError:
+    lz4_block = None
+
+RAW = 'raw'
+ZLIB = 'zlib'
+LZ4 = 'lz4'
+
+# Used for sessions that never negotiate a codec.
+DEFAULT = ZLIB
+
+
+def _encode_lz4(pixels):
+    # The client knows the decoded size from the icon dimensions, so omit the size header.
+    return lz4_block.compress(pixels, store_size=False)
+
+
+ENCODERS = {
+    RAW: lambda pixels: pixels,
+    ZLIB: zlib.compress,
+}
+
+if lz4_block is not None:
+    ENCODERS[LZ4] = _encode_lz4
+else:
+    log.info('LZ4 module not available; icons will not be offered in LZ4.')
+
+
+def negotiate(preferred):
+    """Picks the first codec in the client's preference list that we support."""
+    for codec in preferred or []:
+        if codec in ENCODERS:
+            return codec
+    return DEFAULT
+
+
+def encode(codec, pixels):
+    return ENCODERS[codec](pixels)
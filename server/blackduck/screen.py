@@ -3,10 +3,26 @@ import logging as log
 from hashlib import md5
 from time import time
 from itertools import ifilter
-import base64
+from threading import Lock
 
 from gi.repository import GLib, Wnck
 
+from blackduck import iconcodec
+from blackduck.wire import Binary, Packed, pack
+
+
+# Seconds a closed task is kept around so clients can learn that it closed.
+DEFAULT_TOMBSTONE_RETENTION = 10 * 60
+
+# Seconds between compactions of closed tasks, the change journal and unused icons.
+COMPACTION_INTERVAL = 60
+
+# Most changes kept in the journal; clients further behind get a full listing.
+MAX_JOURNAL_ENTRIES = 10000
+
+# Task fields sent in patches; a task's ID and sequence are always sent.
+PATCHABLE_FIELDS = ('app_name', 'title', 'icon_id', 'is_open', 'last_update_ts')
+
 
 def now():
     return long(time())
@@ -17,15 +33,15 @@ class TaskIconCache(object):
 
     def __init__(self):
         self.cache = {}
+        self.encoded = {}
         self.refcounts = {}
+        # Journal sequence at which each unreferenced icon lost its last task.
+        self.released = {}
 
     @property
     def size(self):
         return len(self.cache)
 
-    def encode_pixels(self, pixels):
-        return base64.standard_b64encode(pixels.encode('zlib_codec'))
-
     def store(self, pxbuf):
         """Caches an Gtk pixel buffer object."""
 
@@ -37,32 +53,103 @@ class TaskIconCache(object):
 
         if icon_id in self.cache:
             self.refcounts[icon_id] += 1
+            self.released.pop(icon_id, None)
         else:
             self.cache[icon_id] = {
                 'id': icon_id,
                 'width': pxbuf.get_width(),
                 'height': pxbuf.get_height(),
-                'pixels': self.encode_pixels(pixels),
+                'pixels': pixels,
             }
+            self.encoded[icon_id] = {}
             self.refcounts[icon_id] = 1
 
         return icon_id
 
-    def deref(self, icon_id):
+    def deref(self, icon_id, sequence):
+        """Drops a reference taken by store(). An icon left unreferenced is kept until
+        collect_garbage() passes the journal sequence at which it was released, because clients
+        that have not yet seen that change may still ask for it."""
         if icon_id in self.cache:
             self.refcounts[icon_id] -= 1
             if self.refcounts[icon_id] == 0:
-                del self.cache[icon_id]
-
-    def fetch(self, icon_id):
-        return self.cache.get(icon_id, {})
+                self.released[icon_id] = sequence
+
+    def fetch(self, icon_id, codec=iconcodec.DEFAULT):
+        """Returns the icon, with its pixels encoded by the given codec, as Packed msgpack bytes
+        ready to be spliced into a response; None if the icon is unknown. Each icon is only
+        encoded and packed once per codec."""
+        icon = self.cache.get(icon_id)
+        if icon is None:
+            return None
+
+        encodings = self.encoded.get(icon_id, {})
+        if codec not in encodings:
+            encodings[codec] = Packed(pack({
+                'id': icon['id'],
+                'width': icon['width'],
+                'height': icon['height'],
+                'codec': codec,
+                'pixels': Binary(iconcodec.encode(codec, icon['pixels'])),
+            }))
+
+        return encodings[codec]
+
+    def collect_garbage(self, horizon, in_use=()):
+        """Removes icons released at or before the given journal sequence, except those still
+        named by a task in in_use, such as a closed task yet to expire. Returns how many were
+        removed."""
+        expired = [icon_id for icon_id, sequence in self.released.iteritems()
+                   if sequence <= horizon and icon_id not in in_use]
+        for icon_id in expired:
+            del self.cache[icon_id]
+            del self.encoded[icon_id]
+            del self.refcounts[icon_id]
+            del self.released[icon_id]
+        return len(expired)
+
+
+class ChangeJournal(object):
+    """Append-only record of task changes, numbered by a monotonic sequence.
+
+    Sequences start from the wall clock (in microseconds) so that they keep increasing across
+    service restarts; a cursor handed out by an earlier run therefore always predates the journal
+    and is answered with a full listing instead of being mistaken for an up-to-date one."""
 
-    def collect_garbage(self):
-        # TODO: Not used yet. Concerns about clients possibly fetching orphaned icon IDs.
-        for icon_id, refcount in self.refcounts.viewitems():
-            if refcount <= 0:
-                del self.cache[icon_id]
-                del self.refcounts[icon_id]
+    def __init__(self):
+        self.lock = Lock()
+        self.start = long(time() * 1000000)
+        self.sequence = self.start
+        # Window IDs in sequence order; entries[i] was recorded with sequence start + 1 + i.
+        self.entries = []
+
+    def record(self, window_id):
+        """Appends a change and returns its sequence."""
+        with self.lock:
+            self.sequence += 1
+            self.entries.append(window_id)
+            return self.sequence
+
+    def trim(self, sequence):
+        """Forgets changes up to the given sequence; cursors before it are then answered with a
+        full listing."""
+        with self.lock:
+            sequence = min(sequence, self.sequence)
+            if sequence > self.start:
+                del self.entries[:sequence - self.start]
+                self.start = sequence
+
+    def __len__(self):
+        with self.lock:
+            return len(self.entries)
+
+    def changes_since(self, since):
+        """Returns the latest sequence along with the IDs of windows changed after the given one,
+        or None in place of the IDs if the journal cannot answer for that sequence."""
+        with self.lock:
+            if since < self.start or since > self.sequence:
+                return self.sequence, None
+            return self.sequence, set(self.entries[since - self.start:])
 
 
 class Task(object):
@@ -74,6 +161,13 @@ class Task(object):
 
         self.is_open = True
         self.last_update_ts = now()
+        self.closed_ts = None
+        self.sequence = 0
+        # Sequence of the first change recorded for this task, and of the last change to each
+        # field; clients at or past the former are sent patches of the fields past their cursor.
+        self.created_sequence = None
+        self.field_sequences = dict.fromkeys(PATCHABLE_FIELDS, 0)
+        self.recorded_fields = {}
         self.connected_handler_ids = set()
         self.icon_id = icon_cache.store(self.window.get_icon())
 
@@ -104,6 +198,18 @@ class Task(object):
         self.app_name = self.window.get_application().get_name()
         self.title = self.window.get_name()
 
+    def record_change(self, sequence):
+        """Stamps the task, and every field that changed since the last change recorded, with
+        the given journal sequence."""
+        fields = self._fields()
+        for name, value in fields.iteritems():
+            if name not in self.recorded_fields or self.recorded_fields[name] != value:
+                self.field_sequences[name] = sequence
+        self.recorded_fields = fields
+        if self.created_sequence is None:
+            self.created_sequence = sequence
+        self.sequence = sequence
+
     def focus(self):
         if self.window and self.is_open:
             self.window.activate(now())
@@ -121,17 +227,16 @@ class Task(object):
     def close(self):
         self.is_open = False
         self._bump_update_time()
+        self.closed_ts = self.last_update_ts
 
         # Disconnect all signal handlers
         for handler_id in self.connected_handler_ids:
             self.window.disconnect(handler_id)
         self.connected_handler_ids = set()
-        self.icon_cache.deref(self.icon_id)
         self.window = None
 
-    def to_json(self):
+    def _fields(self):
         return {
-            'id': self.task_id,
             'app_name': self.app_name,
             'title': self.title,
             'icon_id': self.icon_id,
@@ -139,14 +244,64 @@ class Task(object):
             'last_update_ts': self.last_update_ts,
         }
 
+    def to_json(self):
+        task = self._fields()
+        task['id'] = self.task_id
+        task['sequence'] = self.sequence
+        return task
+
+    def to_patch(self, since):
+        """Returns only the fields changed after the given journal sequence."""
+        patch = {'id': self.task_id, 'sequence': self.sequence}
+        fields = self._fields()
+        for name, sequence in self.field_sequences.items():
+            if sequence > since:
+                patch[name] = fields[name]
+        return patch
+
 
 
 class ScreenManager(object):
-    def __init__(self, screen):
+    def __init__(self, screen, tombstone_retention=DEFAULT_TOMBSTONE_RETENTION):
         self.screen = screen
+        self.tombstone_retention = tombstone_retention
         self.initialized = False
         self.icon_cache = TaskIconCache()
         self.tasks = {}
+        self.journal = ChangeJournal()
+        self.listeners = []
+        self.acks_lock = Lock()
+        self.acks = {}
+
+    def acknowledge(self, client, sequence):
+        """Records that a client has every change up to the given journal sequence. Closed tasks
+        every connected client has acknowledged are compacted without waiting out retention."""
+        with self.acks_lock:
+            self.acks[client] = max(sequence, self.acks.get(client, 0))
+
+    def forget_client(self, client):
+        with self.acks_lock:
+            self.acks.pop(client, None)
+
+    def add_listener(self, listener):
+        """Registers a callable invoked with each Task that opens, closes or changes. Listeners
+        are called on the GTK main thread and must not block."""
+        self.listeners.append(listener)
+
+    def remove_listener(self, listener):
+        if listener in self.listeners:
+            self.listeners.remove(listener)
+
+    def _on_task_changed(self, task):
+        task.record_change(self.journal.record(task.window_id))
+        self._notify_listeners(task)
+
+    def _notify_listeners(self, task):
+        for listener in list(self.listeners):
+            try:
+                listener(task)
+            except Exception as e:
+                log.exception('Task listener failed.', exc_info=e)
 
     def _ensure_initialized(self):
         if not self.initialized:
@@ -161,6 +316,7 @@ class ScreenManager(object):
         if window_id in self.tasks:
             task = self.tasks[window_id]
             task.replace_window(window)
+            self._on_task_changed(task)
 
     def _on_window_open(self, screen, window):
         if not self._is_eligible_window(window):
@@ -172,6 +328,7 @@ class ScreenManager(object):
         new_task = Task(window, self.icon_cache)
         new_task.connect_signal('name-changed', self._on_window_name_changed)
         self.tasks[window_id] = new_task
+        self._on_task_changed(new_task)
 
     def _on_window_close(self, screen, window):
         if not self._is_eligible_window(window):
@@ -183,6 +340,35 @@ class ScreenManager(object):
         if window_id in self.tasks:
             task = self.tasks[window_id]
             task.close()
+            self._on_task_changed(task)
+            self.icon_cache.deref(task.icon_id, task.sequence)
+
+    def compact(self):
+        """Drops closed tasks that are past retention or acknowledged by every connected client,
+        trims the journal behind them, and reclaims icons no client can still ask for. Runs on
+        the GTK main thread, alongside every other change to the tasks."""
+        with self.acks_lock:
+            acked = min(self.acks.values()) if self.acks else None
+
+        expiry = now() - self.tombstone_retention
+        expired = [task for task in self.tasks.itervalues() if not task.is_open and (
+            task.closed_ts <= expiry or (acked is not None and task.sequence <= acked))]
+
+        # Trim first, so a concurrent sync that misses a removed task sees the journal moved past
+        # its cursor and falls back to a full listing.
+        horizon = max([task.sequence for task in expired] +
+                      [self.journal.sequence - MAX_JOURNAL_ENTRIES])
+        self.journal.trim(horizon)
+        for task in expired:
+            del self.tasks[task.window_id]
+
+        # Closed tasks still held may be listed on a reset, so their icons must stay fetchable.
+        in_use = set(task.icon_id for task in self.tasks.itervalues())
+        icons = self.icon_cache.collect_garbage(self.journal.start, in_use)
+        if expired or icons:
+            log.debug('Compacted %d closed tasks and %d icons; %d tasks and %d icons remain.',
+                len(expired), icons, len(self.tasks), self.icon_cache.size)
+        return True
 
     def initialize(self):
         """Should be called before use."""
@@ -192,6 +378,8 @@ class ScreenManager(object):
         self.screen.force_update()
         for window in ifilter(self._is_eligible_window, self.screen.get_windows()):
             task = Task(window, self.icon_cache)
+            task.connect_signal('name-changed', self._on_window_name_changed)
+            task.record_change(self.journal.record(task.window_id))
             self.tasks[window.get_xid()] = task
 
         log.info('ScreenManager initialized with %d tasks and %d icons.',
@@ -199,15 +387,50 @@ class ScreenManager(object):
     
         self.screen.connect('window-opened', self._on_window_open)
         self.screen.connect('window-closed', self._on_window_close)
+        GLib.timeout_add_seconds(COMPACTION_INTERVAL, self.compact)
         self.initialized = True
 
     def list_tasks(self):
         self._ensure_initialized()
         return map(lambda task: task.to_json(), self.tasks.values())
 
-    def get_icon(self, icon_id):
+    def encode_changes(self, tasks, since, patches):
+        """Encodes changed tasks for a client holding every change up to the given sequence.
+        With patches, tasks the client already has are sent as 'patches' carrying only the
+        fields changed since then, which clients apply only if they are that far along."""
+        if not patches:
+            return {'tasks': [task.to_json() for task in tasks]}
+
+        full = []
+        partial = []
+        for task in tasks:
+            if task.created_sequence > since:
+                full.append(task.to_json())
+            else:
+                partial.append(task.to_patch(since))
+        return {'tasks': full, 'patches': partial, 'base_sequence': since}
+
+    def sync_tasks(self, since, patches=False):
+        """Returns the tasks changed after the given journal sequence, along with the sequence the
+        client is then up to date with. If the journal cannot answer for that sequence, every task
+        is returned with 'reset' set, and the client should replace what it has."""
+        self._ensure_initialized()
+        sequence, window_ids = self.journal.changes_since(since)
+        if window_ids is not None:
+            tasks = filter(None, [self.tasks.get(window_id) for window_id in window_ids])
+            # Compaction trims the journal before removing tasks, so a task missing here shows up
+            # as the journal having moved past the cursor.
+            if since >= self.journal.start:
+                changes = self.encode_changes(tasks, since, patches)
+                changes.update(sequence=sequence, reset=False)
+                return changes
+
+        sequence = self.journal.sequence
+        return {'tasks': self.list_tasks(), 'sequence': sequence, 'reset': True}
+
+    def get_icon(self, icon_id, codec=iconcodec.DEFAULT):
         self._ensure_initialized()
-        return self.icon_cache.fetch(icon_id)
+        return self.icon_cache.fetch(icon_id, codec)
 
     def _idle_task_action(self, task_id, action_name):
         self._ensure_initialized()
@@ -0,0 +1,163 @@
+# On-wire encoding of service messages.
+
+import msgpack
+import struct
+
+# Frames are a 4-byte big-endian body length followed by the packed message.
+_FRAME_HEADER = struct.Struct('>I')
+
+# Largest request body a client may send in one frame.
+MAX_FRAME_BYTES = 1024 * 1024
+
+
+class Binary(str):
+    """Marks a byte string to be sent as msgpack bin rather than text."""
+    __slots__ = []
+
+
+def _to_wire(obj):
+    if isinstance(obj, Binary):
+        return obj
+    elif isinstance(obj, str):
+        return obj.decode('utf-8', 'replace')
+    elif isinstance(obj, dict):
+        return dict((_to_wire(key), _to_wire(value)) for key, value in obj.iteritems())
+    elif isinstance(obj, (list, tuple)):
+        return [_to_wire(item) for item in obj]
+    return obj
+
+
+class Packed(str):
+    """Marks an already msgpack-encoded value, which is spliced into messages verbatim."""
+    __slots__ = []
+
+
+def _is_container(obj):
+    return isinstance(obj, (dict, list, tuple, Packed))
+
+
+def _contains_packed(obj):
+    if isinstance(obj, Packed):
+        return True
+    elif isinstance(obj, dict):
+        return any(_contains_packed(value) for value in obj.itervalues())
+    elif isinstance(obj, (list, tuple)):
+        return any(_contains_packed(item) for item in obj)
+    return False
+
+
+def _pack_into(packer, obj, out):
+    if isinstance(obj, Packed):
+        out.append(obj)
+    elif isinstance(obj, dict) and any(_is_container(value) for value in obj.itervalues()):
+        # Scalars go first, so streaming readers learn a message's request ID, status and the like
+        # before its lists arrive.
+        items = sorted(obj.iteritems(), key=lambda item: _is_container(item[1]))
+        out.append(packer.pack_map_header(len(items)))
+        for key, value in items:
+            _pack_into(packer, key, out)
+            _pack_into(packer, value, out)
+    elif isinstance(obj, (list, tuple)) and _contains_packed(obj):
+        out.append(packer.pack_array_header(len(obj)))
+        for item in obj:
+            _pack_into(packer, item, out)
+    else:
+        out.append(packer.pack(_to_wire(obj)))
+
+
+def pack(message):
+    """Packs a message, sending every plain string as text and only Binary values as bin. Packed
+    values are copied into the output as they are, without being encoded again, and the scalar
+    fields of any map holding lists or maps are written ahead of them."""
+    packer = msgpack.Packer(use_bin_type=True)
+    out = []
+    _pack_into(packer, message, out)
+    return ''.join(out)
+
+
+def frame(data):
+    """Prefixes packed message bytes with their frame header."""
+    return _FRAME_HEADER.pack(len(data)) + data
+
+
+def is_framed(first_byte):
+    """Tells whether a connection sends frames, given its first byte. A frame header for any body
+    under 16 MB starts with a zero byte, which never starts a packed message."""
+    return first_byte == '\x00'
+
+
+class FrameReader(object):
+    """Reassembles frames from the bytes received on a connection."""
+
+    def __init__(self):
+        self.buf = bytearray()
+
+    def feed(self, data):
+        self.buf.extend(data)
+
+    def __iter__(self):
+        """Yields the unpacked message of every complete frame fed so far."""
+        offset = 0
+        try:
+            while len(self.buf) - offset >= _FRAME_HEADER.size:
+                length, = _FRAME_HEADER.unpack_from(self.buf, offset)
+                if length > MAX_FRAME_BYTES:
+                    raise ValueError('Frame of %d bytes exceeds the limit of %d.' % (
+                        length, MAX_FRAME_BYTES))
+                end = offset + _FRAME_HEADER.size + length
+                if end > len(self.buf):
+                    break
+                message = msgpack.unpackb(str(self.buf[offset + _FRAME_HEADER.size:end]))
+                offset = end
+                yield message
+        finally:
+            del self.buf[:offset]
+
+
+class StringTable(object):
+    """Strings sent on one connection, each assigned a code the first time it is sent.
+
+    A string's first occurrence goes out as [code, string], later ones as just the code. Codes
+    count up from 0 in send order, so clients rebuild the same table as they read."""
+
+    # Task fields whose values repeat across tasks. Titles change too often to be worth a code.
+    FIELDS = ('app_name', 'icon_id')
+
+    # Most strings given codes per connection; anything past this is sent as is.
+    MAX_SIZE = 4096
+
+    def __init__(self):
+        self.codes = {}
+
+    def encode(self, value):
+        code = self.codes.get(value)
+        if code is not None:
+            return code
+        if len(self.codes) >= self.MAX_SIZE:
+            return value
+        code = len(self.codes)
+        self.codes[value] = code
+        return [code, value]
+
+    def encode_task(self, task):
+        """Returns a copy of a task or patch with its repeated strings encoded."""
+        encoded = dict(task)
+        for field in self.FIELDS:
+            if field in encoded:
+                encoded[field] = self.encode(encoded[field])
+        return encoded
+
+    def encode_response(self, response):
+        """Returns a copy of a response with the tasks and patches in its payload encoded. Must be
+        called in the order responses are sent."""
+        payload = response.get('payload')
+        if not payload or not any(payload.get(key) for key in ('tasks', 'patches')):
+            return response
+
+        payload = dict(payload)
+        for key in ('tasks', 'patches'):
+            if payload.get(key):
+                payload[key] = [self.encode_task(task) for task in payload[key]]
+        response = dict(response)
+        response['payload'] = payload
+        return response